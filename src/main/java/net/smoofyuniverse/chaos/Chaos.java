@@ -25,8 +25,10 @@ package net.smoofyuniverse.chaos;
 import javafx.scene.Scene;
 import javafx.scene.input.KeyCode;
 import javafx.stage.Stage;
-import net.smoofyuniverse.chaos.impl.TypeABuilder;
-import net.smoofyuniverse.chaos.type.builder.TypeBuilder;
+import net.smoofyuniverse.chaos.impl.TypeA;
+import net.smoofyuniverse.chaos.impl.TypeAOptions;
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.type.builder.TypeOptions;
 import net.smoofyuniverse.chaos.ui.UserInterface;
 import net.smoofyuniverse.common.app.Application;
 import net.smoofyuniverse.common.environment.source.GitHubReleaseSource;
@@ -36,7 +38,8 @@ public class Chaos extends Application {
 
 	@Override
 	public void init() {
-		TypeBuilder.REGISTRY.put("A", TypeABuilder::new);
+		TypeOptions.REGISTRY.put("A", TypeAOptions::read);
+		Type.REGISTRY.put("A", TypeA::read);
 	}
 
 	@Override
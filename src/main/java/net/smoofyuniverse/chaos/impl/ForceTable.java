@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.impl;
+
+// Piecewise linear approximation of the TypeA force divided by distance, as a function of the squared distance
+// That function is too steep close to zero, pairs closer than the start of the table are evaluated exactly
+public final class ForceTable {
+	private static final int MIN_CELLS = 256, MAX_CELLS = 1 << 16;
+	static final double MIN_DISTANCE2 = 0.01;
+
+	public final double tolerance, error, start;
+	private final double invStep;
+	private final double[] cells;
+
+	private ForceTable(double tolerance, double error, double start, double invStep, double[] cells) {
+		this.tolerance = tolerance;
+		this.error = error;
+		this.start = start;
+		this.invStep = invStep;
+		this.cells = cells;
+	}
+
+	public int size() {
+		return this.cells.length >> 1;
+	}
+
+	// The squared distance must be in [start, attractionRadius2]
+	public double get(double d2) {
+		int i = (int) (d2 * this.invStep) << 1;
+		return this.cells[i] + this.cells[i + 1] * d2;
+	}
+
+	// Returns null when the tolerance cannot be met over the attraction range within the size limit
+	public static ForceTable build(TypeA type, double tolerance) {
+		if (!(tolerance > 0))
+			throw new IllegalArgumentException("tolerance");
+
+		double rr2 = type.repulsionRadius * type.repulsionRadius, ar2 = type.attractionRadius * type.attractionRadius;
+		if (!(ar2 > MIN_DISTANCE2))
+			return null;
+
+		double peak = 0;
+		for (int i = 0; i <= 4096; i++) {
+			double d2 = MIN_DISTANCE2 + (ar2 - MIN_DISTANCE2) * i / 4096;
+			peak = Math.max(peak, Math.abs(force(type, d2, d2 <= rr2)));
+		}
+		if (peak == 0)
+			peak = 1;
+
+		ForceTable best = null;
+		for (int target = MIN_CELLS; target <= MAX_CELLS; target <<= 1) {
+			// The repulsion radius falls on a cell edge so that no cell straddles the two curves
+			int k = Math.max(1, (int) Math.round(rr2 / ar2 * target));
+			double step = rr2 / k;
+			int n = (int) Math.ceil(ar2 / step);
+			if (n > MAX_CELLS)
+				break;
+
+			double[] cells = new double[(n + 1) << 1];
+			double[] errors = new double[n];
+			for (int i = 0; i < n; i++) {
+				double lo = i * step, hi = (i + 1) * step;
+				if (hi <= MIN_DISTANCE2)
+					continue;
+				lo = Math.max(lo, MIN_DISTANCE2);
+
+				boolean repulsion = i < k;
+				double glo = force(type, lo, repulsion) / Math.sqrt(lo), ghi = force(type, hi, repulsion) / Math.sqrt(hi);
+				double slope = (ghi - glo) / (hi - lo), intercept = glo - slope * lo;
+				cells[i << 1] = intercept;
+				cells[(i << 1) + 1] = slope;
+
+				for (int q = 1; q < 4; q++) {
+					double d2 = lo + (hi - lo) * q / 4;
+					double d = Math.sqrt(d2);
+					errors[i] = Math.max(errors[i], Math.abs((intercept + slope * d2) * d - force(type, d2, repulsion)) / peak);
+				}
+			}
+
+			// The table starts after the last cell over the tolerance and must at least cover the attraction
+			int first = n;
+			double error = 0;
+			while (first > 0 && errors[first - 1] <= tolerance)
+				error = Math.max(error, errors[--first]);
+			if (first > k)
+				continue;
+
+			// Guards an index rounding up at the attraction radius
+			cells[n << 1] = cells[(n - 1) << 1];
+			cells[(n << 1) + 1] = cells[((n - 1) << 1) + 1];
+
+			best = new ForceTable(tolerance, error, Math.max(first * step, MIN_DISTANCE2), 1 / step, cells);
+			// Finer tables are worth it while most repulsion pairs still fall back to the exact path
+			if (best.start <= rr2 / 4)
+				break;
+		}
+		return best;
+	}
+
+	static double force(TypeA type, double d2, boolean repulsion) {
+		double d = Math.sqrt(d2);
+		if (repulsion)
+			return type.repulsionFactor * type.repulsionRadius * (1D / (type.repulsionRadius + 2) - 1D / (d + 2));
+		if (type.flatAttraction)
+			return type.attractionFactor;
+		return type.attractionFactor * (1D - (2D * Math.abs(d - (type.attractionRadius + type.repulsionRadius) / 2D)) / (type.attractionRadius - type.repulsionRadius));
+	}
+}
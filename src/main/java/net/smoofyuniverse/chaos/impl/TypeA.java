@@ -25,14 +25,29 @@ package net.smoofyuniverse.chaos.impl;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import net.smoofyuniverse.chaos.type.ColoredType;
+import net.smoofyuniverse.chaos.type.InteractionKernel;
+import net.smoofyuniverse.chaos.type.SymmetricType;
+import net.smoofyuniverse.chaos.type.TabulatedType;
+import net.smoofyuniverse.chaos.type.Type;
 import net.smoofyuniverse.chaos.universe.IParticle;
 import net.smoofyuniverse.chaos.universe.Particle;
+import net.smoofyuniverse.chaos.universe.ParticleStore;
+import net.smoofyuniverse.chaos.universe.Precision;
+import net.smoofyuniverse.chaos.universe.TypeTable;
 import net.smoofyuniverse.chaos.universe.Universe;
-import net.smoofyuniverse.chaos.universe.Universe.UParticle;
 
-import java.util.Random;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.random.RandomGenerator;
+
+public class TypeA implements ColoredType, TabulatedType, SymmetricType {
+	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+
+	// Layout of the packed kernel parameters
+	private static final int ATTRACTION_RADIUS2 = 0, REPULSION_RADIUS = 1, M_RADIUS = 2, D_RADIUS = 3, ATTRACTION_FACTOR = 4, REPULSION_FACTOR = 5,
+			FLAT_ATTRACTION = 6, EMISSION_COS = 7, EMISSION_SIN = 8, RECEPTION_COS = 9, RECEPTION_SIN = 10, FRICTION = 11;
 
-public class TypeA implements ColoredType {
 	public final Color color;
 	public final double radius, friction;
 	public final double attractionFactor, attractionRadius, repulsionFactor, repulsionRadius;
@@ -44,6 +59,9 @@ public class TypeA implements ColoredType {
 	private final double attractionRadius2, mRadius, dRadius, receptionCos, receptionSin, emissionCos, emissionSin;
 	private final Color attractionColor, repulsionColor;
 
+	private double forceTolerance;
+	private ForceTable forceTable;
+
 	public TypeA(Universe universe, Color color, double radius, double friction, double attractionFactor, double attractionRadius, double repulsionFactor, double repulsionRadius, double receptionAngle, double emissionAngle, boolean flatAttraction) {
 		if (universe == null)
 			throw new IllegalArgumentException("universe");
@@ -85,6 +103,46 @@ public class TypeA implements ColoredType {
 		this.emissionSin = Math.sin(emissionAngle);
 	}
 
+	@Override
+	public String getTypeName() {
+		return "A";
+	}
+
+	@Override
+	public double getInteractionRadius() {
+		return this.attractionRadius;
+	}
+
+	@Override
+	public double getRepulsionRadius() {
+		return this.repulsionRadius;
+	}
+
+	@Override
+	public void setForceTolerance(double tolerance) {
+		if (!(tolerance >= 0))
+			throw new IllegalArgumentException("tolerance");
+		if (tolerance == this.forceTolerance)
+			return;
+
+		this.forceTolerance = tolerance;
+		this.forceTable = tolerance == 0 ? null : ForceTable.build(this, tolerance);
+	}
+
+	@Override
+	public double getForceTolerance() {
+		return this.forceTolerance;
+	}
+
+	@Override
+	public boolean isTabulated() {
+		return this.forceTable != null;
+	}
+
+	public ForceTable getForceTable() {
+		return this.forceTable;
+	}
+
 	@Override
 	public Color getColor() {
 		return this.color;
@@ -107,13 +165,12 @@ public class TypeA implements ColoredType {
 	@Override
 	public Particle createDefault() {
 		Particle p = new Particle();
-		p.type = this;
 		p.radius = this.radius;
 		return p;
 	}
 
 	@Override
-	public Particle createRandom(Random random) {
+	public Particle createRandom(RandomGenerator random) {
 		Particle p = createDefault();
 		p.positionX = random.nextDouble() * this.universe.getSizeX();
 		p.positionY = random.nextDouble() * this.universe.getSizeY();
@@ -123,57 +180,228 @@ public class TypeA implements ColoredType {
 	}
 
 	@Override
-	public void applyInteractions(UParticle emitter, UParticle receiver) {
-		Particle r = receiver.mutable;
-		if (r.type == null)
-			return;
+	public void pack(double[] table, int offset) {
+		table[offset + ATTRACTION_RADIUS2] = this.attractionRadius2;
+		table[offset + REPULSION_RADIUS] = this.repulsionRadius;
+		table[offset + M_RADIUS] = this.mRadius;
+		table[offset + D_RADIUS] = this.dRadius;
+		table[offset + ATTRACTION_FACTOR] = this.attractionFactor;
+		table[offset + REPULSION_FACTOR] = this.repulsionFactor;
+		table[offset + FLAT_ATTRACTION] = this.flatAttraction ? 1 : 0;
+		table[offset + EMISSION_COS] = this.emissionCos;
+		table[offset + EMISSION_SIN] = this.emissionSin;
+		table[offset + RECEPTION_COS] = this.receptionCos;
+		table[offset + RECEPTION_SIN] = this.receptionSin;
+		table[offset + FRICTION] = this.friction;
+	}
 
-		double dx = this.universe.getDeltaX(receiver.getPositionX(), emitter.getPositionX());
-		double dy = this.universe.getDeltaY(receiver.getPositionY(), emitter.getPositionY());
+	@Override
+	public void applyInteractions(ParticleStore particles, int emitter, int receiver) {
+		TypeTable types = particles.getTypeTable();
+		if (particles.getPrecision() == Precision.FLOAT)
+			applyInteractions(this.universe, types.getFloatParameters(), this.forceTable, particles, particles.getTypeId(emitter), emitter, receiver);
+		else
+			applyInteractions(this.universe, types.getParameters(), this.forceTable, particles, particles.getTypeId(emitter), emitter, receiver);
+	}
+
+	@Override
+	public InteractionKernel createKernel(TypeTable types) {
+		ForceTable[] tables = new ForceTable[types.size()];
+		for (int id = 0; id < tables.length; id++) {
+			Type type = types.get(id);
+			if (type.getClass() != TypeA.class || ((TypeA) type).universe != this.universe)
+				return null;
+			tables[id] = ((TypeA) type).forceTable;
+		}
+		return new Kernel(this.universe, types.getParameters(), types.getFloatParameters(), tables);
+	}
+
+	// The emitter has the given type id, whose parameters start at id * PARAMETERS
+	static void applyInteractions(Universe universe, double[] t, ForceTable table, ParticleStore particles, int id, int emitter, int receiver) {
+		int o = id * PARAMETERS;
+
+		double dx = universe.getDeltaX(particles.getPositionX(receiver), particles.getPositionX(emitter));
+		double dy = universe.getDeltaY(particles.getPositionY(receiver), particles.getPositionY(emitter));
 		double d2 = dx * dx + dy * dy;
 
-		if (d2 > this.attractionRadius2 || d2 < 0.01D)
+		if (d2 > t[o + ATTRACTION_RADIUS2] || d2 < ForceTable.MIN_DISTANCE2)
+			return;
+
+		double emissionCos = t[o + EMISSION_COS], emissionSin = t[o + EMISSION_SIN];
+
+		if (table != null && d2 >= table.start) {
+			double g = table.get(d2);
+			dx *= g;
+			dy *= g;
+			particles.addForce(receiver, emissionCos * dx - emissionSin * dy, emissionSin * dx + emissionCos * dy);
 			return;
+		}
 
 		double d = Math.sqrt(d2);
 		dx /= d;
 		dy /= d;
 
-		double f;
-		if (d > this.repulsionRadius) {
-			if (this.flatAttraction)
-				f = this.attractionFactor;
+		double f, repulsionRadius = t[o + REPULSION_RADIUS];
+		if (d > repulsionRadius) {
+			if (t[o + FLAT_ATTRACTION] != 0)
+				f = t[o + ATTRACTION_FACTOR];
 			else
-				f = this.attractionFactor * (1D - (2D * Math.abs(d - this.mRadius)) / this.dRadius);
+				f = t[o + ATTRACTION_FACTOR] * (1D - (2D * Math.abs(d - t[o + M_RADIUS])) / t[o + D_RADIUS]);
 		} else {
-			f = this.repulsionFactor * this.repulsionRadius * (1D / (this.repulsionRadius + 2) - 1D / (d + 2));
+			f = t[o + REPULSION_FACTOR] * repulsionRadius * (1D / (repulsionRadius + 2) - 1D / (d + 2));
 		}
 
-		r.forceX += (this.emissionCos * dx - this.emissionSin * dy) * f;
-		r.forceY += (this.emissionSin * dx + this.emissionCos * dy) * f;
+		particles.addForce(receiver, (emissionCos * dx - emissionSin * dy) * f, (emissionSin * dx + emissionCos * dy) * f);
 	}
 
 	@Override
-	public void tickStandalone(UParticle p) {
-		Particle m = p.mutable;
-		if (m.type == null)
+	public void applyInteraction(ParticleStore particles, int emitter, int receiver, double dx, double dy, double d2, double d, double[] forceX, double[] forceY) {
+		double[] t = particles.getTypeTable().getParameters();
+		int o = particles.getTypeId(emitter) * PARAMETERS;
+
+		if (d2 > t[o + ATTRACTION_RADIUS2] || d2 < ForceTable.MIN_DISTANCE2)
 			return;
 
-		if (p.isSelected()) {
-			m.accelerationX = 0;
-			m.accelerationY = 0;
+		double emissionCos = t[o + EMISSION_COS], emissionSin = t[o + EMISSION_SIN];
+
+		ForceTable table = this.forceTable;
+		if (table != null && d2 >= table.start) {
+			double g = table.get(d2);
+			dx *= g;
+			dy *= g;
+			forceX[receiver] += emissionCos * dx - emissionSin * dy;
+			forceY[receiver] += emissionSin * dx + emissionCos * dy;
+			return;
+		}
 
-			m.speedX = 0;
-			m.speedY = 0;
+		dx /= d;
+		dy /= d;
+
+		double f, repulsionRadius = t[o + REPULSION_RADIUS];
+		if (d > repulsionRadius) {
+			if (t[o + FLAT_ATTRACTION] != 0)
+				f = t[o + ATTRACTION_FACTOR];
+			else
+				f = t[o + ATTRACTION_FACTOR] * (1D - (2D * Math.abs(d - t[o + M_RADIUS])) / t[o + D_RADIUS]);
+		} else {
+			f = t[o + REPULSION_FACTOR] * repulsionRadius * (1D / (repulsionRadius + 2) - 1D / (d + 2));
+		}
+
+		forceX[receiver] += (emissionCos * dx - emissionSin * dy) * f;
+		forceY[receiver] += (emissionSin * dx + emissionCos * dy) * f;
+	}
+
+	// Same kernel in single precision
+	static void applyInteractions(Universe universe, float[] t, ForceTable table, ParticleStore particles, int id, int emitter, int receiver) {
+		int o = id * PARAMETERS;
+
+		float dx = (float) universe.getDeltaX(particles.getPositionX(receiver), particles.getPositionX(emitter));
+		float dy = (float) universe.getDeltaY(particles.getPositionY(receiver), particles.getPositionY(emitter));
+		float d2 = dx * dx + dy * dy;
+
+		if (d2 > t[o + ATTRACTION_RADIUS2] || d2 < (float) ForceTable.MIN_DISTANCE2)
+			return;
+
+		float emissionCos = t[o + EMISSION_COS], emissionSin = t[o + EMISSION_SIN];
+
+		if (table != null && d2 >= table.start) {
+			float g = (float) table.get(d2);
+			dx *= g;
+			dy *= g;
+			particles.addForce(receiver, emissionCos * dx - emissionSin * dy, emissionSin * dx + emissionCos * dy);
+			return;
+		}
+
+		float d = (float) Math.sqrt(d2);
+		dx /= d;
+		dy /= d;
+
+		float f, repulsionRadius = t[o + REPULSION_RADIUS];
+		if (d > repulsionRadius) {
+			if (t[o + FLAT_ATTRACTION] != 0)
+				f = t[o + ATTRACTION_FACTOR];
+			else
+				f = t[o + ATTRACTION_FACTOR] * (1F - (2F * Math.abs(d - t[o + M_RADIUS])) / t[o + D_RADIUS]);
 		} else {
-			m.accelerationX = this.receptionCos * m.forceX - this.receptionSin * m.forceY;
-			m.accelerationY = this.receptionSin * m.forceX + this.receptionCos * m.forceY;
+			f = t[o + REPULSION_FACTOR] * repulsionRadius * (1F / (repulsionRadius + 2) - 1F / (d + 2));
+		}
+
+		particles.addForce(receiver, (emissionCos * dx - emissionSin * dy) * f, (emissionSin * dx + emissionCos * dy) * f);
+	}
+
+	@Override
+	public void tickStandalone(ParticleStore particles, int particle) {
+		double[] t = particles.getTypeTable().getParameters();
+		int o = particles.getTypeId(particle) * PARAMETERS;
+		double receptionCos = t[o + RECEPTION_COS], receptionSin = t[o + RECEPTION_SIN], friction = t[o + FRICTION];
+
+		double forceX = particles.getForceX(particle), forceY = particles.getForceY(particle);
+		double accelerationX = receptionCos * forceX - receptionSin * forceY;
+		double accelerationY = receptionSin * forceX + receptionCos * forceY;
+
+		double speedX = particles.getSpeedX(particle) * (1 - friction) + accelerationX;
+		double speedY = particles.getSpeedY(particle) * (1 - friction) + accelerationY;
+
+		particles.setAcceleration(particle, accelerationX, accelerationY);
+		particles.setSpeed(particle, speedX, speedY);
+		particles.setPosition(particle, particles.getPositionX(particle) + speedX, particles.getPositionY(particle) + speedY);
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(CURRENT_VERSION);
 
-			m.speedX = m.speedX * (1 - this.friction) + m.accelerationX;
-			m.speedY = m.speedY * (1 - this.friction) + m.accelerationY;
+		out.writeDouble(this.color.getRed());
+		out.writeDouble(this.color.getGreen());
+		out.writeDouble(this.color.getBlue());
+		out.writeDouble(this.color.getOpacity());
 
-			m.positionX += m.speedX;
-			m.positionY += m.speedY;
+		out.writeDouble(this.radius);
+		out.writeDouble(this.friction);
+		out.writeDouble(this.attractionFactor);
+		out.writeDouble(this.attractionRadius);
+		out.writeDouble(this.repulsionFactor);
+		out.writeDouble(this.repulsionRadius);
+		out.writeDouble(this.receptionAngle);
+		out.writeDouble(this.emissionAngle);
+		out.writeBoolean(this.flatAttraction);
+	}
+
+	public static TypeA read(Universe universe, DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
+			throw new IOException("Invalid format version: " + version);
+
+		try {
+			Color color = Color.color(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+			return new TypeA(universe, color, in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+					in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readBoolean());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid type parameters", e);
+		}
+	}
+
+	// Parameters and force tables of every type of the table, indexed by type id
+	private static final class Kernel implements InteractionKernel {
+		private final Universe universe;
+		private final double[] parameters;
+		private final float[] floatParameters;
+		private final ForceTable[] tables;
+
+		private Kernel(Universe universe, double[] parameters, float[] floatParameters, ForceTable[] tables) {
+			this.universe = universe;
+			this.parameters = parameters;
+			this.floatParameters = floatParameters;
+			this.tables = tables;
+		}
+
+		@Override
+		public void applyInteractions(ParticleStore particles, int emitter, int receiver) {
+			int id = particles.getTypeId(emitter);
+			if (particles.getPrecision() == Precision.FLOAT)
+				TypeA.applyInteractions(this.universe, this.floatParameters, this.tables[id], particles, id, emitter, receiver);
+			else
+				TypeA.applyInteractions(this.universe, this.parameters, this.tables[id], particles, id, emitter, receiver);
 		}
 	}
 }
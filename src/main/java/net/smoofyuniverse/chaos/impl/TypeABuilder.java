@@ -30,40 +30,41 @@ import javafx.scene.control.Label;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 import net.smoofyuniverse.chaos.type.builder.ColoredTypeBuilder;
-import net.smoofyuniverse.chaos.universe.Universe;
 import net.smoofyuniverse.common.fx.field.DoubleField;
 import net.smoofyuniverse.common.util.GridUtil;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.util.Optional;
+import static net.smoofyuniverse.chaos.impl.TypeAOptions.MAX_ANGLE;
+import static net.smoofyuniverse.chaos.impl.TypeAOptions.MAX_FACTOR;
+import static net.smoofyuniverse.chaos.impl.TypeAOptions.MAX_INTERACTION_RADIUS;
+import static net.smoofyuniverse.chaos.impl.TypeAOptions.MAX_RADIUS;
 
 public class TypeABuilder implements ColoredTypeBuilder<TypeA> {
-	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
-
 	public final ObjectProperty<Color> color = new SimpleObjectProperty<>();
-	public final DoubleField radius = new DoubleField(0, 100, 5), friction = new DoubleField(0, 1, 0.1),
-			attractionFactor = new DoubleField(-50, 50, 0.1), attractionRadius = new DoubleField(0, 500, 10),
-			repulsionFactor = new DoubleField(-50, 50, 1), repulsionRadius = new DoubleField(0, 500, 7),
-			receptionAngleDeg = new DoubleField(-360, 360, 0), emissionAngleDeg = new DoubleField(-360, 360, 0);
+	public final DoubleField radius = new DoubleField(0, MAX_RADIUS, 5), friction = new DoubleField(0, 1, 0.1),
+			attractionFactor = new DoubleField(-MAX_FACTOR, MAX_FACTOR, 0.1), attractionRadius = new DoubleField(0, MAX_INTERACTION_RADIUS, 10),
+			repulsionFactor = new DoubleField(-MAX_FACTOR, MAX_FACTOR, 1), repulsionRadius = new DoubleField(0, MAX_INTERACTION_RADIUS, 7),
+			receptionAngleDeg = new DoubleField(-MAX_ANGLE, MAX_ANGLE, 0), emissionAngleDeg = new DoubleField(-MAX_ANGLE, MAX_ANGLE, 0);
 	public final CheckBox flatAttraction = new CheckBox();
 
 	private final GridPane pane = new GridPane();
 
 	public TypeABuilder(Color color, double radius, double friction, double attractionFactor, double attractionRadius, double repulsionFactor, double repulsionRadius, double receptionAngleDeg, double emissionAngleDeg, boolean flatAttraction) {
+		this(new TypeAOptions(color, radius, friction, attractionFactor, attractionRadius, repulsionFactor, repulsionRadius, receptionAngleDeg, emissionAngleDeg, flatAttraction));
+	}
+
+	public TypeABuilder(TypeAOptions options) {
 		this();
 
-		this.color.set(color);
-		this.radius.setValue(radius);
-		this.friction.setValue(friction);
-		this.attractionFactor.setValue(attractionFactor);
-		this.attractionRadius.setValue(attractionRadius);
-		this.repulsionFactor.setValue(repulsionFactor);
-		this.repulsionRadius.setValue(repulsionRadius);
-		this.receptionAngleDeg.setValue(receptionAngleDeg);
-		this.emissionAngleDeg.setValue(emissionAngleDeg);
-		this.flatAttraction.setSelected(flatAttraction);
+		this.color.set(options.color);
+		this.radius.setValue(options.radius);
+		this.friction.setValue(options.friction);
+		this.attractionFactor.setValue(options.attractionFactor);
+		this.attractionRadius.setValue(options.attractionRadius);
+		this.repulsionFactor.setValue(options.repulsionFactor);
+		this.repulsionRadius.setValue(options.repulsionRadius);
+		this.receptionAngleDeg.setValue(options.receptionAngleDeg);
+		this.emissionAngleDeg.setValue(options.emissionAngleDeg);
+		this.flatAttraction.setSelected(options.flatAttraction);
 	}
 
 	public TypeABuilder() {
@@ -94,17 +95,12 @@ public class TypeABuilder implements ColoredTypeBuilder<TypeA> {
 	}
 
 	@Override
-	public Optional<TypeA> build(Universe universe) {
-		try {
-			return Optional.of(new TypeA(universe, this.color.get(),
-					this.radius.getValue(), this.friction.getValue(),
-					this.attractionFactor.getValue(), this.attractionRadius.getValue(),
-					this.repulsionFactor.getValue(), this.repulsionRadius.getValue(),
-					this.receptionAngleDeg.getValue() / 180.0 * Math.PI, this.emissionAngleDeg.getValue() / 180.0 * Math.PI,
-					this.flatAttraction.isSelected()));
-		} catch (Exception e) {
-			return Optional.empty();
-		}
+	public TypeAOptions getOptions() {
+		return new TypeAOptions(this.color.get(), this.radius.getValue(), this.friction.getValue(),
+				this.attractionFactor.getValue(), this.attractionRadius.getValue(),
+				this.repulsionFactor.getValue(), this.repulsionRadius.getValue(),
+				this.receptionAngleDeg.getValue(), this.emissionAngleDeg.getValue(),
+				this.flatAttraction.isSelected());
 	}
 
 	@Override
@@ -112,46 +108,6 @@ public class TypeABuilder implements ColoredTypeBuilder<TypeA> {
 		return this.pane;
 	}
 
-	@Override
-	public void read(DataInputStream in) throws IOException {
-		int version = in.readInt();
-		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
-			throw new IOException("Invalid format version: " + version);
-
-		this.color.set(Color.color(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
-
-		this.radius.setValue(in.readDouble());
-		this.friction.setValue(in.readDouble());
-		this.attractionFactor.setValue(in.readDouble());
-		this.attractionRadius.setValue(in.readDouble());
-		this.repulsionFactor.setValue(in.readDouble());
-		this.repulsionRadius.setValue(in.readDouble());
-		this.receptionAngleDeg.setValue(in.readDouble());
-		this.emissionAngleDeg.setValue(in.readDouble());
-		this.flatAttraction.setSelected(in.readBoolean());
-	}
-
-	@Override
-	public void write(DataOutputStream out) throws IOException {
-		out.writeInt(CURRENT_VERSION);
-
-		Color c = this.color.get();
-		out.writeDouble(c.getRed());
-		out.writeDouble(c.getGreen());
-		out.writeDouble(c.getBlue());
-		out.writeDouble(c.getOpacity());
-
-		out.writeDouble(this.radius.getValue());
-		out.writeDouble(this.friction.getValue());
-		out.writeDouble(this.attractionFactor.getValue());
-		out.writeDouble(this.attractionRadius.getValue());
-		out.writeDouble(this.repulsionFactor.getValue());
-		out.writeDouble(this.repulsionRadius.getValue());
-		out.writeDouble(this.receptionAngleDeg.getValue());
-		out.writeDouble(this.emissionAngleDeg.getValue());
-		out.writeBoolean(this.flatAttraction.isSelected());
-	}
-
 	@Override
 	public ObjectProperty<Color> colorProperty() {
 		return this.color;
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.impl;
+
+import javafx.scene.paint.Color;
+import net.smoofyuniverse.chaos.type.builder.TypeOptions;
+import net.smoofyuniverse.chaos.universe.Universe;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+// The values are clamped to the ranges of the fields of TypeABuilder, angles are in degrees
+public final class TypeAOptions implements TypeOptions<TypeA> {
+	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+	public static final double MAX_RADIUS = 100, MAX_FACTOR = 50, MAX_INTERACTION_RADIUS = 500, MAX_ANGLE = 360;
+
+	public final Color color;
+	public final double radius, friction, attractionFactor, attractionRadius, repulsionFactor, repulsionRadius, receptionAngleDeg, emissionAngleDeg;
+	public final boolean flatAttraction;
+
+	public TypeAOptions(Color color, double radius, double friction, double attractionFactor, double attractionRadius, double repulsionFactor, double repulsionRadius, double receptionAngleDeg, double emissionAngleDeg, boolean flatAttraction) {
+		this.color = color;
+		this.radius = clamp(radius, 0, MAX_RADIUS);
+		this.friction = clamp(friction, 0, 1);
+		this.attractionFactor = clamp(attractionFactor, -MAX_FACTOR, MAX_FACTOR);
+		this.attractionRadius = clamp(attractionRadius, 0, MAX_INTERACTION_RADIUS);
+		this.repulsionFactor = clamp(repulsionFactor, -MAX_FACTOR, MAX_FACTOR);
+		this.repulsionRadius = clamp(repulsionRadius, 0, MAX_INTERACTION_RADIUS);
+		this.receptionAngleDeg = clamp(receptionAngleDeg, -MAX_ANGLE, MAX_ANGLE);
+		this.emissionAngleDeg = clamp(emissionAngleDeg, -MAX_ANGLE, MAX_ANGLE);
+		this.flatAttraction = flatAttraction;
+	}
+
+	@Override
+	public String getTypeName() {
+		return "A";
+	}
+
+	@Override
+	public Optional<TypeA> build(Universe universe) {
+		try {
+			return Optional.of(new TypeA(universe, this.color, this.radius, this.friction,
+					this.attractionFactor, this.attractionRadius, this.repulsionFactor, this.repulsionRadius,
+					this.receptionAngleDeg / 180.0 * Math.PI, this.emissionAngleDeg / 180.0 * Math.PI, this.flatAttraction));
+		} catch (Exception e) {
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public TypeABuilder createBuilder() {
+		return new TypeABuilder(this);
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(CURRENT_VERSION);
+
+		out.writeDouble(this.color.getRed());
+		out.writeDouble(this.color.getGreen());
+		out.writeDouble(this.color.getBlue());
+		out.writeDouble(this.color.getOpacity());
+
+		out.writeDouble(this.radius);
+		out.writeDouble(this.friction);
+		out.writeDouble(this.attractionFactor);
+		out.writeDouble(this.attractionRadius);
+		out.writeDouble(this.repulsionFactor);
+		out.writeDouble(this.repulsionRadius);
+		out.writeDouble(this.receptionAngleDeg);
+		out.writeDouble(this.emissionAngleDeg);
+		out.writeBoolean(this.flatAttraction);
+	}
+
+	public static TypeAOptions read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
+			throw new IOException("Invalid format version: " + version);
+
+		Color color;
+		try {
+			color = Color.color(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid color", e);
+		}
+		return new TypeAOptions(color, in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+				in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readBoolean());
+	}
+
+	private static double clamp(double value, double min, double max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
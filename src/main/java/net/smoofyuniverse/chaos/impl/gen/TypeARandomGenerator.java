@@ -22,10 +22,14 @@
 
 package net.smoofyuniverse.chaos.impl.gen;
 
+import javafx.scene.paint.Color;
+import net.smoofyuniverse.chaos.impl.TypeA;
 import net.smoofyuniverse.chaos.impl.TypeABuilder;
+import net.smoofyuniverse.chaos.universe.Universe;
 import net.smoofyuniverse.chaos.util.NumberGenerator;
 
 import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public final class TypeARandomGenerator implements TypeAGenerator {
 	public final String name;
@@ -57,32 +61,55 @@ public final class TypeARandomGenerator implements TypeAGenerator {
 
 	@Override
 	public TypeABuilder generate(Random random) {
-		double radius = this.radius.generate(random);
-		if (radius < 0)
-			radius = 0;
+		Parameters p = new Parameters(random);
 
-		double repulsionRadius = this.repulsionRadius.generate(random);
-		if (repulsionRadius < radius)
-			repulsionRadius = radius;
+		TypeABuilder b = new TypeABuilder();
+		b.radius.setValue(p.radius);
+		b.friction.setValue(p.friction);
+		b.attractionFactor.setValue(p.attractionFactor);
+		b.attractionRadius.setValue(p.attractionRadius);
+		b.repulsionFactor.setValue(p.repulsionFactor);
+		b.repulsionRadius.setValue(p.repulsionRadius);
+		b.flatAttraction.setSelected(p.flatAttraction);
+		return b;
+	}
 
-		double attractionRadius = this.attractionRadius.generate(random);
-		if (attractionRadius < repulsionRadius)
-			attractionRadius = repulsionRadius;
+	public TypeA generate(Universe universe, Color color, RandomGenerator random) {
+		Parameters p = new Parameters(random);
+		return new TypeA(universe, color, p.radius, p.friction, p.attractionFactor, p.attractionRadius,
+				p.repulsionFactor, p.repulsionRadius, 0, 0, p.flatAttraction);
+	}
 
-		double friction = this.friction.generate(random);
-		if (friction < 0)
-			friction = 0;
-		else if (friction > 1)
-			friction = 1;
+	private final class Parameters {
+		final double radius, friction, attractionFactor, attractionRadius, repulsionFactor, repulsionRadius;
+		final boolean flatAttraction;
 
-		TypeABuilder b = new TypeABuilder();
-		b.radius.setValue(radius);
-		b.friction.setValue(friction);
-		b.attractionFactor.setValue(this.attractionFactor.generate(random));
-		b.attractionRadius.setValue(attractionRadius);
-		b.repulsionFactor.setValue(this.repulsionFactor.generate(random));
-		b.repulsionRadius.setValue(repulsionRadius);
-		b.flatAttraction.setSelected(random.nextDouble() < this.flatAttractionChance);
-		return b;
+		Parameters(RandomGenerator random) {
+			double radius = TypeARandomGenerator.this.radius.generate(random);
+			if (radius < 0)
+				radius = 0;
+
+			double repulsionRadius = TypeARandomGenerator.this.repulsionRadius.generate(random);
+			if (repulsionRadius < radius)
+				repulsionRadius = radius;
+
+			double attractionRadius = TypeARandomGenerator.this.attractionRadius.generate(random);
+			if (attractionRadius < repulsionRadius)
+				attractionRadius = repulsionRadius;
+
+			double friction = TypeARandomGenerator.this.friction.generate(random);
+			if (friction < 0)
+				friction = 0;
+			else if (friction > 1)
+				friction = 1;
+
+			this.radius = radius;
+			this.repulsionRadius = repulsionRadius;
+			this.attractionRadius = attractionRadius;
+			this.friction = friction;
+			this.attractionFactor = TypeARandomGenerator.this.attractionFactor.generate(random);
+			this.repulsionFactor = TypeARandomGenerator.this.repulsionFactor.generate(random);
+			this.flatAttraction = random.nextDouble() < TypeARandomGenerator.this.flatAttractionChance;
+		}
 	}
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.sweep;
+
+import net.smoofyuniverse.chaos.impl.TypeA;
+import net.smoofyuniverse.chaos.impl.TypeAOptions;
+import net.smoofyuniverse.chaos.impl.gen.TypeARandomGenerator;
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.type.builder.GenerationOptions;
+import net.smoofyuniverse.chaos.type.builder.TypeOptions;
+import net.smoofyuniverse.chaos.universe.Engine;
+import net.smoofyuniverse.chaos.universe.ParticleStore;
+import net.smoofyuniverse.chaos.universe.Statistics;
+import net.smoofyuniverse.chaos.universe.Universe;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+// Runs the same universe with several thread counts for each engine and reports the first tick where the states differ
+public final class DeterminismCheck {
+	private static final Logger logger = ApplicationLogger.get(DeterminismCheck.class);
+
+	private DeterminismCheck() {}
+
+	// Hashes of the state before the first tick and after each tick
+	public static long[] run(ForkJoinPool pool, Engine engine, Consumer<Universe> generator, double sizeX, double sizeY, double sleepTolerance, boolean strict, int ticks) {
+		Universe universe = new Universe(pool, pool.getParallelism() * 4);
+		universe.setSizeX(sizeX);
+		universe.setSizeY(sizeY);
+		universe.setSleepTolerance(sleepTolerance);
+		universe.setEngine(engine);
+		universe.setStrictDeterminism(strict);
+		generator.accept(universe);
+
+		long[] hashes = new long[ticks + 1];
+		hashes[0] = hash(universe);
+		for (int i = 1; i <= ticks; i++) {
+			universe.tick();
+			hashes[i] = hash(universe);
+		}
+		return hashes;
+	}
+
+	// Every bit of the particles and of the statistics
+	public static long hash(Universe universe) {
+		ParticleStore s = universe.getParticles();
+		long h = mix(universe.getAge(), s.size());
+		for (int i = 0; i < s.size(); i++) {
+			h = mix(h, Double.doubleToLongBits(s.getPositionX(i)));
+			h = mix(h, Double.doubleToLongBits(s.getPositionY(i)));
+			h = mix(h, Double.doubleToLongBits(s.getSpeedX(i)));
+			h = mix(h, Double.doubleToLongBits(s.getSpeedY(i)));
+			h = mix(h, Double.doubleToLongBits(s.getAccelerationX(i)));
+			h = mix(h, Double.doubleToLongBits(s.getAccelerationY(i)));
+			h = mix(h, ((long) s.getTypeId(i) << 32) | s.getIdle(i));
+		}
+
+		Statistics st = universe.getStatistics();
+		h = mix(h, ((long) st.particles << 32) | st.sleeping);
+		h = mix(h, Double.doubleToLongBits(st.kineticEnergy));
+		h = mix(h, Double.doubleToLongBits(st.momentumX));
+		h = mix(h, Double.doubleToLongBits(st.momentumY));
+		h = mix(h, Double.doubleToLongBits(st.meanSpeed));
+		h = mix(h, Double.doubleToLongBits(st.dispersion));
+		return h;
+	}
+
+	private static long mix(long h, long value) {
+		h = (h ^ value) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	// Returns the first tick where the hashes differ, or -1
+	public static int firstDivergence(long[] a, long[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			if (a[i] != b[i])
+				return i;
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		// Chaos.init is not run headless
+		TypeOptions.REGISTRY.put("A", TypeAOptions::read);
+		Type.REGISTRY.put("A", TypeA::read);
+
+		Map<String, String> options = Sweep.parseOptions(args);
+		int ticks = Integer.parseInt(options.getOrDefault("ticks", "200"));
+		double sleepTolerance = Double.parseDouble(options.getOrDefault("sleep", "0"));
+		boolean strict = Boolean.parseBoolean(options.getOrDefault("strict", "true"));
+		String[] size = options.getOrDefault("size", "900x700").split("x");
+		double sizeX = Double.parseDouble(size[0]), sizeY = Double.parseDouble(size[1]);
+
+		// Either a file saved by the generation panel or a generated preset
+		Map<String, Consumer<Universe>> sources = new LinkedHashMap<>();
+		String file = options.get("options");
+		if (file != null) {
+			Path path = Paths.get(file);
+			sources.put(path.getFileName().toString(), GenerationOptions.read(path)::generateParticles);
+		} else {
+			long seed = Long.parseLong(options.getOrDefault("seed", "0"));
+			int count = Integer.parseInt(options.getOrDefault("count", "2000"));
+			for (TypeARandomGenerator generator : Sweep.parsePresets(options.getOrDefault("presets", "all")))
+				sources.put(generator.name, universe -> Sweep.generate(universe, generator, seed, count));
+		}
+
+		Engine[] engines;
+		String enginesArg = options.getOrDefault("engines", "all");
+		if (enginesArg.equals("all"))
+			engines = Engine.values();
+		else
+			engines = Arrays.stream(enginesArg.split(",")).map(name -> Engine.valueOf(name.trim().toUpperCase(Locale.ROOT))).toArray(Engine[]::new);
+
+		int[] threads = Arrays.stream(options.getOrDefault("threads", "1,2," + Runtime.getRuntime().availableProcessors()).split(","))
+				.mapToInt(Integer::parseInt).distinct().toArray();
+
+		ForkJoinPool[] pools = new ForkJoinPool[threads.length];
+		for (int i = 0; i < threads.length; i++)
+			pools[i] = new ForkJoinPool(threads[i]);
+
+		int diverging = 0;
+		try {
+			for (Map.Entry<String, Consumer<Universe>> source : sources.entrySet()) {
+				for (Engine engine : engines) {
+					long[] reference = run(pools[0], engine, source.getValue(), sizeX, sizeY, sleepTolerance, strict, ticks);
+
+					boolean identical = true;
+					for (int i = 1; i < threads.length; i++) {
+						int tick = firstDivergence(reference, run(pools[i], engine, source.getValue(), sizeX, sizeY, sleepTolerance, strict, ticks));
+						if (tick != -1) {
+							logger.warn("{} with {}: {} threads diverge from {} threads at tick {}", source.getKey(), engine, threads[i], threads[0], tick);
+							identical = false;
+						}
+					}
+
+					if (identical)
+						logger.info("{} with {}: identical over {} ticks with {} threads", source.getKey(), engine, ticks, Arrays.toString(threads));
+					else
+						diverging++;
+				}
+			}
+		} finally {
+			for (ForkJoinPool pool : pools)
+				pool.shutdown();
+		}
+
+		logger.info("{} / {} checks diverged", diverging, sources.size() * engines.length);
+	}
+}
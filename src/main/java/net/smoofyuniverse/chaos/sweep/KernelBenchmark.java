@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.sweep;
+
+import net.smoofyuniverse.chaos.impl.ForceTable;
+import net.smoofyuniverse.chaos.impl.TypeA;
+import net.smoofyuniverse.chaos.impl.gen.TypeARandomGenerator;
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.universe.*;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+// Compares the throughput and accuracy of the kernel modes and precisions on the same generated universes
+public final class KernelBenchmark {
+	private static final Logger logger = ApplicationLogger.get(KernelBenchmark.class);
+
+	private KernelBenchmark() {}
+
+	public static Universe create(ForkJoinPool pool, TypeARandomGenerator generator, long seed, int count, double sizeX, double sizeY) {
+		return create(pool, generator, seed, count, sizeX, sizeY, Precision.DOUBLE);
+	}
+
+	public static Universe create(ForkJoinPool pool, TypeARandomGenerator generator, long seed, int count, double sizeX, double sizeY, Precision precision) {
+		return create(pool, generator, seed, count, sizeX, sizeY, precision, Storage.HEAP);
+	}
+
+	public static Universe create(ForkJoinPool pool, TypeARandomGenerator generator, long seed, int count, double sizeX, double sizeY, Precision precision, Storage storage) {
+		Universe universe = new Universe(pool, pool.getParallelism() * 4, precision, storage);
+		universe.setSizeX(sizeX);
+		universe.setSizeY(sizeY);
+		Sweep.generate(universe, generator, seed, count);
+		return universe;
+	}
+
+	// Returns the mean duration of a tick in milliseconds
+	public static double measure(Universe universe, int warmup, int ticks) {
+		for (int i = 0; i < warmup; i++)
+			universe.tick();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ticks; i++)
+			universe.tick();
+		return (System.nanoTime() - start) / 1e6 / ticks;
+	}
+
+	// Returns the mean duration of a checkpoint written through a snapshot and straight from the store, in milliseconds
+	public static double[] measureCheckpoint(Universe universe, int repeats) throws IOException {
+		Path file = Files.createTempFile("chaos", ".chs");
+		try {
+			long start = System.nanoTime();
+			for (int i = 0; i < repeats; i++)
+				Checkpoint.write(universe.snapshot(), file);
+			long middle = System.nanoTime();
+			for (int i = 0; i < repeats; i++)
+				Checkpoint.write(universe, file);
+			long end = System.nanoTime();
+			return new double[]{(middle - start) / 1e6 / repeats, (end - middle) / 1e6 / repeats};
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	// Root mean square distance between the particles of two universes of the same size
+	public static double divergence(Universe a, Universe b) {
+		ParticleStore pa = a.getParticles(), pb = b.getParticles();
+		int n = Math.min(pa.size(), pb.size());
+		if (n == 0)
+			return 0;
+
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double dx = a.getDeltaX(pa.getPositionX(i), pb.getPositionX(i)), dy = a.getDeltaY(pa.getPositionY(i), pb.getPositionY(i));
+			sum += dx * dx + dy * dy;
+		}
+		return Math.sqrt(sum / n);
+	}
+
+	// Ticks both universes together and samples their divergence every interval ticks
+	public static double[] trajectory(Universe a, Universe b, int ticks, int interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval");
+
+		double[] samples = new double[ticks / interval + 1];
+		samples[0] = divergence(a, b);
+		for (int i = 1; i < samples.length; i++) {
+			for (int j = 0; j < interval; j++) {
+				a.tick();
+				b.tick();
+			}
+			samples[i] = divergence(a, b);
+		}
+		return samples;
+	}
+
+	public static double getTableError(Universe universe) {
+		TypeTable table = universe.getParticles().getTypeTable();
+		double error = 0;
+		for (int i = 0; i < table.size(); i++) {
+			Type type = table.get(i);
+			if (type instanceof TypeA) {
+				ForceTable t = ((TypeA) type).getForceTable();
+				error = Math.max(error, t == null ? 0 : t.error);
+			}
+		}
+		return error;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = Sweep.parseOptions(args);
+		List<TypeARandomGenerator> generators = Sweep.parsePresets(options.getOrDefault("presets", "all"));
+		long seed = Long.parseLong(options.getOrDefault("seed", "0"));
+		int count = Integer.parseInt(options.getOrDefault("count", "3000"));
+		int ticks = Integer.parseInt(options.getOrDefault("ticks", "100"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "20"));
+		double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "1e-3"));
+		String[] size = options.getOrDefault("size", "900x700").split("x");
+		double sizeX = Double.parseDouble(size[0]), sizeY = Double.parseDouble(size[1]);
+		int threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+		String compare = options.getOrDefault("compare", "table");
+		int interval = Integer.parseInt(options.getOrDefault("interval", "10"));
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (TypeARandomGenerator generator : generators) {
+				switch (compare) {
+					case "table": {
+						Universe exact = create(pool, generator, seed, count, sizeX, sizeY);
+						Universe tabulated = create(pool, generator, seed, count, sizeX, sizeY);
+						tabulated.setForceTolerance(tolerance);
+
+						double exactTime = measure(exact, warmup, ticks), tabulatedTime = measure(tabulated, warmup, ticks);
+						logger.info("{}: exact {} ms/tick, tabulated {} ms/tick, speedup {}, table error {}, divergence {} after {} ticks",
+								generator.name, exactTime, tabulatedTime, exactTime / tabulatedTime, getTableError(tabulated), divergence(exact, tabulated), exact.getAge());
+						break;
+					}
+					case "precision": {
+						double doubleTime = measure(create(pool, generator, seed, count, sizeX, sizeY, Precision.DOUBLE), warmup, ticks);
+						double floatTime = measure(create(pool, generator, seed, count, sizeX, sizeY, Precision.FLOAT), warmup, ticks);
+						logger.info("{}: double {} ms/tick, float {} ms/tick, speedup {}", generator.name, doubleTime, floatTime, doubleTime / floatTime);
+
+						// Same initial state, the float universe starts from the rounded positions
+						double[] samples = trajectory(create(pool, generator, seed, count, sizeX, sizeY, Precision.DOUBLE),
+								create(pool, generator, seed, count, sizeX, sizeY, Precision.FLOAT), ticks, interval);
+						for (int i = 0; i < samples.length; i++)
+							logger.info("{}: divergence {} at tick {}", generator.name, samples[i], i * interval);
+						break;
+					}
+					case "storage": {
+						Universe heap = create(pool, generator, seed, count, sizeX, sizeY, Precision.DOUBLE, Storage.HEAP);
+						Universe offHeap = create(pool, generator, seed, count, sizeX, sizeY, Precision.DOUBLE, Storage.OFF_HEAP);
+
+						double heapTime = measure(heap, warmup, ticks), offHeapTime = measure(offHeap, warmup, ticks);
+						logger.info("{}: heap {} ms/tick, off-heap {} ms/tick, speedup {}, divergence {}", generator.name, heapTime, offHeapTime, heapTime / offHeapTime, divergence(heap, offHeap));
+
+						double[] heapWrite = measureCheckpoint(heap, 5), offHeapWrite = measureCheckpoint(offHeap, 5);
+						logger.info("{}: checkpoint heap {} ms (snapshot) {} ms (direct), off-heap {} ms (snapshot) {} ms (direct)",
+								generator.name, heapWrite[0], heapWrite[1], offHeapWrite[0], offHeapWrite[1]);
+						break;
+					}
+					default:
+						throw new IllegalArgumentException("Unknown comparison: " + compare);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.sweep;
+
+import net.smoofyuniverse.chaos.universe.Universe;
+
+import java.util.function.ToDoubleFunction;
+
+public final class PlateauDetector implements ConvergenceDetector {
+	public final String name;
+	public final ToDoubleFunction<Universe> metric;
+	public final int window, patience;
+	public final double tolerance, floor;
+
+	private double sum, previousMean = Double.NaN;
+	private int samples, stableWindows;
+
+	public PlateauDetector(String name, ToDoubleFunction<Universe> metric, int window, int patience, double tolerance, double floor) {
+		if (metric == null)
+			throw new IllegalArgumentException("metric");
+		if (window <= 0)
+			throw new IllegalArgumentException("window");
+		if (patience <= 0)
+			throw new IllegalArgumentException("patience");
+		if (tolerance < 0)
+			throw new IllegalArgumentException("tolerance");
+		if (floor < 0)
+			throw new IllegalArgumentException("floor");
+
+		this.name = name;
+		this.metric = metric;
+		this.window = window;
+		this.patience = patience;
+		this.tolerance = tolerance;
+		this.floor = floor;
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public boolean update(Universe universe) {
+		this.sum += this.metric.applyAsDouble(universe);
+		if (++this.samples < this.window)
+			return this.stableWindows >= this.patience;
+
+		double mean = this.sum / this.samples;
+		this.sum = 0;
+		this.samples = 0;
+
+		// Relative change, values below the floor are considered equal
+		if (Math.abs(mean - this.previousMean) <= this.tolerance * Math.max(Math.abs(this.previousMean), this.floor))
+			this.stableWindows++;
+		else
+			this.stableWindows = 0;
+
+		this.previousMean = mean;
+		return this.stableWindows >= this.patience;
+	}
+
+	public static PlateauDetector temperature() {
+		return new PlateauDetector("temperature", u -> u.getStatistics().getTemperature(), 100, 3, 0.1, 5);
+	}
+
+	public static PlateauDetector distribution() {
+		return new PlateauDetector("distribution", u -> u.getStatistics().dispersion, 100, 3, 0.1, 1);
+	}
+}
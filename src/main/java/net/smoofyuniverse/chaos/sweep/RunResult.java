@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.sweep;
+
+public final class RunResult {
+	public static final String HEADER = "generator,seed,particles,ticks,converged,temperature,clusters,largest_cluster,tick_ms,total_ms";
+
+	public final String generator;
+	public final long seed;
+	public final int particles;
+	public final long ticks;
+	public final boolean converged;
+	public final double temperature;
+	public final int clusters, largestCluster;
+	public final double tickTime, totalTime;
+
+	public RunResult(String generator, long seed, int particles, long ticks, boolean converged, double temperature, int clusters, int largestCluster, double tickTime, double totalTime) {
+		this.generator = generator;
+		this.seed = seed;
+		this.particles = particles;
+		this.ticks = ticks;
+		this.converged = converged;
+		this.temperature = temperature;
+		this.clusters = clusters;
+		this.largestCluster = largestCluster;
+		this.tickTime = tickTime;
+		this.totalTime = totalTime;
+	}
+
+	public String toCsv() {
+		return this.generator + "," + this.seed + "," + this.particles + "," + this.ticks + "," + this.converged + "," + this.temperature + "," + this.clusters + "," + this.largestCluster + "," + this.tickTime + "," + this.totalTime;
+	}
+}
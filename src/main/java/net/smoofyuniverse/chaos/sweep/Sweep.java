@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.sweep;
+
+import javafx.scene.paint.Color;
+import net.smoofyuniverse.chaos.impl.gen.TypeAGenerators;
+import net.smoofyuniverse.chaos.impl.gen.TypeARandomGenerator;
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.universe.Clusters;
+import net.smoofyuniverse.chaos.universe.Universe;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+public final class Sweep {
+	private static final Logger logger = ApplicationLogger.get(Sweep.class);
+
+	// Universes below this size run on a single worker, larger ones are split over the pool
+	public static final int LARGE_UNIVERSE = 20000;
+
+	public final List<TypeARandomGenerator> generators;
+	public final long[] seeds;
+	public final int[] counts;
+	public final int ticks, minTicks;
+	public final double sizeX, sizeY;
+	public final List<Supplier<ConvergenceDetector>> detectors;
+
+	public Sweep(List<TypeARandomGenerator> generators, long[] seeds, int[] counts, int ticks, int minTicks, double sizeX, double sizeY, List<Supplier<ConvergenceDetector>> detectors) {
+		if (generators.isEmpty())
+			throw new IllegalArgumentException("generators");
+		if (seeds.length == 0)
+			throw new IllegalArgumentException("seeds");
+		if (counts.length == 0)
+			throw new IllegalArgumentException("counts");
+		for (int count : counts) {
+			if (count <= 0)
+				throw new IllegalArgumentException("counts");
+		}
+		if (ticks <= 0)
+			throw new IllegalArgumentException("ticks");
+		if (minTicks < 0)
+			throw new IllegalArgumentException("minTicks");
+		if (sizeX <= 0 || sizeY <= 0)
+			throw new IllegalArgumentException("sizeX, sizeY");
+
+		this.generators = generators;
+		this.seeds = seeds;
+		this.counts = counts;
+		this.ticks = ticks;
+		this.minTicks = minTicks;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.detectors = detectors;
+	}
+
+	public void run(ForkJoinPool pool, Path output) throws IOException {
+		// Largest universes first so that small ones fill the gaps at the end
+		int[] counts = this.counts.clone();
+		Arrays.sort(counts);
+
+		try (BufferedWriter out = Files.newBufferedWriter(output)) {
+			out.write(RunResult.HEADER);
+			out.newLine();
+
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int i = counts.length - 1; i >= 0; i--) {
+				int count = counts[i];
+				for (TypeARandomGenerator generator : this.generators) {
+					for (long seed : this.seeds) {
+						tasks.add(pool.submit(() -> {
+							RunResult result = run(pool, generator, seed, count);
+							synchronized (out) {
+								try {
+									out.write(result.toCsv());
+									out.newLine();
+								} catch (IOException e) {
+									throw new UncheckedIOException(e);
+								}
+							}
+						}));
+					}
+				}
+			}
+
+			int done = 0;
+			for (ForkJoinTask<?> task : tasks) {
+				try {
+					task.join();
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				} catch (RuntimeException e) {
+					logger.error("Run failed", e);
+				}
+
+				done++;
+				if (done % 100 == 0)
+					logger.info("{} / {} runs completed", done, tasks.size());
+			}
+		}
+	}
+
+	public RunResult run(ForkJoinPool pool, TypeARandomGenerator generator, long seed, int count) {
+		Universe universe = new Universe(pool, count >= LARGE_UNIVERSE ? pool.getParallelism() * 4 : 1);
+		universe.setSizeX(this.sizeX);
+		universe.setSizeY(this.sizeY);
+		// The detectors read the statistics, the results must not depend on the number of threads of the machine
+		universe.setStrictDeterminism(true);
+
+		// Recorded as a run without particles rather than failing the sweep
+		if (!generate(universe, generator, seed, count))
+			return new RunResult(generator.name, seed, 0, 0, false, 0, 0, 0, 0, 0);
+
+		List<ConvergenceDetector> detectors = new ArrayList<>(this.detectors.size());
+		for (Supplier<ConvergenceDetector> supplier : this.detectors)
+			detectors.add(supplier.get());
+
+		boolean converged = false;
+		long start = System.nanoTime();
+		for (int i = 0; i < this.ticks; i++) {
+			universe.tick();
+
+			if (!detectors.isEmpty()) {
+				// Every detector must see every tick
+				boolean all = true;
+				for (ConvergenceDetector d : detectors)
+					all &= d.update(universe);
+
+				if (all && universe.getAge() >= this.minTicks) {
+					converged = true;
+					break;
+				}
+			}
+		}
+		double totalTime = (System.nanoTime() - start) / 1e6;
+
+		long ticks = universe.getAge();
+		Clusters clusters = universe.analyzeClusters();
+		return new RunResult(generator.name, seed, universe.size(), ticks, converged, universe.getStatistics().getTemperature(), clusters.size(), clusters.getLargest(), totalTime / ticks, totalTime);
+	}
+
+	// Returns false when every generated type is invalid, the universe is then left empty
+	public static boolean generate(Universe universe, TypeARandomGenerator generator, long seed, int count) {
+		Random random = new Random(seed);
+		int c = generator.recommendedTypes();
+
+		List<Type> types = new ArrayList<>(c);
+		for (int i = 0; i < c; i++) {
+			Color color = Color.hsb(i / (double) c * 360, 1d, i % 2 == 0 ? 1d : 0.6d);
+			try {
+				types.add(generator.generate(universe, color, random));
+			} catch (IllegalArgumentException e) {
+				logger.debug("Skipping invalid type", e);
+			}
+		}
+
+		if (types.isEmpty())
+			return false;
+
+		int[] counts = new int[types.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = count / counts.length + (i < count % counts.length ? 1 : 0);
+
+		universe.generate(types.toArray(new Type[0]), counts, seed);
+		return true;
+	}
+
+	static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i == -1)
+				throw new IllegalArgumentException("Invalid argument: " + arg);
+			options.put(arg.substring(0, i), arg.substring(i + 1));
+		}
+		return options;
+	}
+
+	static List<TypeARandomGenerator> parsePresets(String presets) {
+		List<TypeARandomGenerator> generators = new ArrayList<>();
+		if (presets.equals("all")) {
+			generators.addAll(TypeAGenerators.RANDOMS);
+		} else {
+			for (String name : presets.split(",")) {
+				TypeARandomGenerator gen = TypeAGenerators.RANDOMS.stream().filter(g -> g.name.equalsIgnoreCase(name.trim())).findFirst()
+						.orElseThrow(() -> new IllegalArgumentException("Unknown preset: " + name));
+				generators.add(gen);
+			}
+		}
+		return generators;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = parseOptions(args);
+		List<TypeARandomGenerator> generators = parsePresets(options.getOrDefault("presets", "all"));
+
+		long[] seeds;
+		String seedsArg = options.getOrDefault("seeds", "0-9");
+		int dash = seedsArg.indexOf('-', 1);
+		if (dash != -1) {
+			long min = Long.parseLong(seedsArg.substring(0, dash)), max = Long.parseLong(seedsArg.substring(dash + 1));
+			seeds = new long[(int) (max - min + 1)];
+			for (int i = 0; i < seeds.length; i++)
+				seeds[i] = min + i;
+		} else {
+			seeds = Arrays.stream(seedsArg.split(",")).mapToLong(Long::parseLong).toArray();
+		}
+
+		int[] counts = Arrays.stream(options.getOrDefault("counts", "1600").split(",")).mapToInt(Integer::parseInt).toArray();
+		int ticks = Integer.parseInt(options.getOrDefault("ticks", "2000"));
+		int minTicks = Integer.parseInt(options.getOrDefault("minTicks", "500"));
+
+		List<Supplier<ConvergenceDetector>> detectors = new ArrayList<>();
+		for (String name : options.getOrDefault("detectors", "temperature,distribution").split(",")) {
+			switch (name.trim()) {
+				case "temperature":
+					detectors.add(PlateauDetector::temperature);
+					break;
+				case "distribution":
+					detectors.add(PlateauDetector::distribution);
+					break;
+				case "none":
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown detector: " + name);
+			}
+		}
+
+		String[] size = options.getOrDefault("size", "900x700").split("x");
+		double sizeX = Double.parseDouble(size[0]), sizeY = Double.parseDouble(size[1]);
+
+		int threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		Path output = Paths.get(options.getOrDefault("output", "sweep.csv"));
+
+		Sweep sweep = new Sweep(generators, seeds, counts, ticks, minTicks, sizeX, sizeY, detectors);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			long start = System.currentTimeMillis();
+			sweep.run(pool, output);
+			logger.info("Sweep completed in {} s", (System.currentTimeMillis() - start) / 1000);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
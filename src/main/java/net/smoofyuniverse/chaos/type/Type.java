@@ -25,20 +25,44 @@ package net.smoofyuniverse.chaos.type;
 import javafx.scene.canvas.GraphicsContext;
 import net.smoofyuniverse.chaos.universe.IParticle;
 import net.smoofyuniverse.chaos.universe.Particle;
-import net.smoofyuniverse.chaos.universe.Universe.UParticle;
+import net.smoofyuniverse.chaos.universe.ParticleStore;
+import net.smoofyuniverse.chaos.universe.TypeTable;
 
-import java.util.Random;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
 
 public interface Type {
+	Map<String, TypeReader> REGISTRY = new HashMap<>();
+	int PARAMETERS = 16;
+
+	String getTypeName();
+
+	double getInteractionRadius();
+
+	double getRepulsionRadius();
+
 	void draw1(GraphicsContext g, IParticle particle);
 
 	void draw2(GraphicsContext g, IParticle particle);
 
 	Particle createDefault();
 
-	Particle createRandom(Random random);
+	Particle createRandom(RandomGenerator random);
+
+	// Writes up to PARAMETERS kernel values, read back by id in the hot loops
+	void pack(double[] table, int offset);
+
+	void applyInteractions(ParticleStore particles, int emitter, int receiver);
+
+	// A kernel for every type of the table, or null when this type cannot evaluate some of them
+	default InteractionKernel createKernel(TypeTable table) {
+		return null;
+	}
 
-	void applyInteractions(UParticle emitter, UParticle receiver);
+	void tickStandalone(ParticleStore particles, int particle);
 
-	void tickStandalone(UParticle particle);
+	void write(DataOutputStream out) throws IOException;
 }
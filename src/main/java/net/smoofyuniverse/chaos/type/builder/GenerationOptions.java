@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.type.builder;
+
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.universe.Universe;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Types and particle counts saved by the generation panel, read without any control so that they can be generated headless
+public final class GenerationOptions {
+	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+	public static final int MAX_COUNT = 3000;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	public final String seed1, seed2;
+	public final TypeOptions<?>[] types;
+	public final int[] counts;
+
+	public GenerationOptions(String seed1, String seed2, TypeOptions<?>[] types, int[] counts) {
+		if (types.length != counts.length)
+			throw new IllegalArgumentException("types, counts");
+		for (int count : counts) {
+			if (count < 0 || count > MAX_COUNT)
+				throw new IllegalArgumentException("counts");
+		}
+		this.seed1 = seed1;
+		this.seed2 = seed2;
+		this.types = types;
+		this.counts = counts;
+	}
+
+	// Types whose parameters are invalid are skipped
+	public void generateParticles(Universe universe) {
+		Type[] types = new Type[this.types.length];
+		int[] counts = new int[this.types.length];
+
+		int size = 0;
+		for (int i = 0; i < this.types.length; i++) {
+			Type type = this.types[i].build(universe).orElse(null);
+			if (type != null) {
+				types[size] = type;
+				counts[size] = this.counts[i];
+				size++;
+			}
+		}
+
+		universe.generate(Arrays.copyOf(types, size), Arrays.copyOf(counts, size), parseSeed(this.seed1));
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(CURRENT_VERSION);
+
+		out.writeUTF(this.seed1);
+		out.writeUTF(this.seed2);
+
+		out.writeInt(this.types.length);
+		for (int i = 0; i < this.types.length; i++) {
+			out.writeUTF(this.types[i].getTypeName());
+			this.types[i].write(out);
+			out.writeInt(this.counts[i]);
+		}
+	}
+
+	public static long parseSeed(String seed) {
+		try {
+			return Long.parseLong(seed);
+		} catch (NumberFormatException e) {
+			return seed.hashCode();
+		}
+	}
+
+	public static GenerationOptions read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), BUFFER_SIZE))) {
+			return read(in);
+		}
+	}
+
+	public static GenerationOptions read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
+			throw new IOException("Invalid format version: " + version);
+
+		String s1 = in.readUTF(), s2 = in.readUTF();
+
+		int size = in.readInt();
+		if (size < 0)
+			throw new IOException("Invalid type count: " + size);
+
+		TypeOptions<?>[] types = new TypeOptions<?>[Math.min(size, 256)];
+		int[] counts = new int[types.length];
+		for (int i = 0; i < size; i++) {
+			String typeName = in.readUTF();
+			TypeOptions.Reader reader = TypeOptions.REGISTRY.get(typeName);
+			if (reader == null)
+				throw new IOException("Unknown type name: " + typeName);
+
+			TypeOptions<?> options = reader.read(in);
+
+			// Clamped like the count field of the panel
+			int count = in.readInt();
+			if (count < 0)
+				throw new IOException("Invalid particle count: " + count);
+			count = Math.min(count, MAX_COUNT);
+
+			if (i == types.length) {
+				types = Arrays.copyOf(types, i * 2);
+				counts = Arrays.copyOf(counts, i * 2);
+			}
+			types[i] = options;
+			counts[i] = count;
+		}
+
+		return new GenerationOptions(s1, s2, Arrays.copyOf(types, size), Arrays.copyOf(counts, size));
+	}
+}
@@ -26,24 +26,17 @@ import javafx.scene.Node;
 import net.smoofyuniverse.chaos.type.Type;
 import net.smoofyuniverse.chaos.universe.Universe;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
-import java.util.function.Supplier;
 
 public interface TypeBuilder<T extends Type> {
-	Map<String, Supplier<TypeBuilder<?>>> REGISTRY = new HashMap<>();
 
 	String getTypeName();
 
-	Optional<T> build(Universe universe);
+	TypeOptions<T> getOptions();
 
-	Node getNode();
-
-	void read(DataInputStream in) throws IOException;
+	default Optional<T> build(Universe universe) {
+		return getOptions().build(universe);
+	}
 
-	void write(DataOutputStream out) throws IOException;
+	Node getNode();
 }
@@ -22,6 +22,7 @@
 
 package net.smoofyuniverse.chaos.ui;
 
+import javafx.application.Platform;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -37,38 +38,39 @@ import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.util.StringConverter;
 import net.smoofyuniverse.chaos.impl.gen.TypeAGenerator;
 import net.smoofyuniverse.chaos.impl.gen.TypeAGenerators;
-import net.smoofyuniverse.chaos.type.Type;
 import net.smoofyuniverse.chaos.type.builder.ColoredTypeBuilder;
+import net.smoofyuniverse.chaos.type.builder.GenerationOptions;
 import net.smoofyuniverse.chaos.type.builder.TypeBuilder;
+import net.smoofyuniverse.chaos.type.builder.TypeOptions;
 import net.smoofyuniverse.chaos.type.gen.TypeGenerator;
 import net.smoofyuniverse.chaos.universe.Universe;
 import net.smoofyuniverse.common.app.Application;
+import net.smoofyuniverse.common.app.ApplicationManager;
 import net.smoofyuniverse.common.fx.field.IntegerField;
 import net.smoofyuniverse.common.logger.ApplicationLogger;
 import net.smoofyuniverse.common.util.GridUtil;
 import org.slf4j.Logger;
 
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.Supplier;
 
 public class GenerationPanel extends GridPane {
-	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
 	private static final Logger logger = ApplicationLogger.get(GenerationPanel.class);
 
 	private final ListView<TypeObject> types = new ListView<>();
 	private final TextField seed1 = new TextField(), seed2 = new TextField();
 
 	private final Random optionsRandom = new Random();
-	private long genSeed;
 	private int ct;
 
 	public GenerationPanel() {
@@ -137,25 +139,7 @@ public class GenerationPanel extends GridPane {
 			}
 		});
 
-		this.seed1.textProperty().addListener((v, oldV, newV) -> {
-			long l;
-			try {
-				l = Long.parseLong(newV);
-			} catch (NumberFormatException e) {
-				l = newV.hashCode();
-			}
-			this.genSeed = l;
-		});
-
-		this.seed2.textProperty().addListener((v, oldV, newV) -> {
-			long l;
-			try {
-				l = Long.parseLong(newV);
-			} catch (NumberFormatException e) {
-				l = newV.hashCode();
-			}
-			this.optionsRandom.setSeed(l);
-		});
+		this.seed2.textProperty().addListener((v, oldV, newV) -> this.optionsRandom.setSeed(GenerationOptions.parseSeed(newV)));
 
 		rSeed1.setOnAction(e -> this.seed1.setText(randomSeed()));
 		rSeed2.setOnAction(e -> this.seed2.setText(randomSeed()));
@@ -166,16 +150,29 @@ public class GenerationPanel extends GridPane {
 		FileChooser chooser = new FileChooser();
 		chooser.getExtensionFilters().add(new ExtensionFilter("Chaos Options", "*.cho"));
 
-		// TODO async IO
 		open.setOnAction(e -> {
 			File f = chooser.showOpenDialog(Application.get().getStage().orElse(null));
 			if (f != null) {
 				Path p = f.toPath();
-				try {
-					read(p);
-				} catch (IOException ex) {
-					logger.error("Failed to read options from {}", p.getFileName(), ex);
-				}
+				open.setDisable(true);
+				save.setDisable(true);
+
+				ApplicationManager.get().getExecutor().execute(() -> {
+					GenerationOptions options = null;
+					try {
+						options = GenerationOptions.read(p);
+					} catch (IOException ex) {
+						logger.error("Failed to read options from {}", p.getFileName(), ex);
+					}
+
+					GenerationOptions result = options;
+					Platform.runLater(() -> {
+						if (result != null)
+							apply(result);
+						open.setDisable(false);
+						save.setDisable(false);
+					});
+				});
 			}
 		});
 
@@ -183,11 +180,30 @@ public class GenerationPanel extends GridPane {
 			File f = chooser.showSaveDialog(Application.get().getStage().orElse(null));
 			if (f != null) {
 				Path p = f.toPath();
-				try {
-					write(p);
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (DataOutputStream out = new DataOutputStream(bytes)) {
+					getOptions().write(out);
 				} catch (IOException ex) {
-					logger.error("Failed to write options to {}", p.getFileName(), ex);
+					logger.error("Failed to serialize options", ex);
+					return;
 				}
+
+				open.setDisable(true);
+				save.setDisable(true);
+
+				ApplicationManager.get().getExecutor().execute(() -> {
+					try {
+						write(p, ByteBuffer.wrap(bytes.toByteArray()));
+					} catch (IOException ex) {
+						logger.error("Failed to write options to {}", p.getFileName(), ex);
+					}
+
+					Platform.runLater(() -> {
+						open.setDisable(false);
+						save.setDisable(false);
+					});
+				});
 			}
 		});
 
@@ -252,72 +268,39 @@ public class GenerationPanel extends GridPane {
 		return Long.toString(ThreadLocalRandom.current().nextLong());
 	}
 
-	public void read(Path file) throws IOException {
-		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
-			read(in);
+	public static void write(Path file, ByteBuffer data) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (data.hasRemaining())
+				channel.write(data);
 		}
 	}
 
-	public void write(Path file) throws IOException {
-		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
-			write(out);
-		}
-	}
-
-	public void read(DataInputStream in) throws IOException {
-		int version = in.readInt();
-		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
-			throw new IOException("Invalid format version: " + version);
-
-		String s1 = in.readUTF(), s2 = in.readUTF();
-
-		int size = in.readInt();
-		List<TypeObject> l = new ArrayList<>(size);
-		for (int i = 0; i < size; i++) {
-			String typeName = in.readUTF();
-			Supplier<TypeBuilder<?>> supplier = TypeBuilder.REGISTRY.get(typeName);
-			if (supplier == null) {
-				logger.warn("Skipping unknown type name {}", typeName);
-				continue;
-			}
-
-			TypeObject obj = new TypeObject(supplier.get());
-			obj.builder.read(in);
-			obj.count.set(in.readInt());
-
+	public void apply(GenerationOptions options) {
+		List<TypeObject> l = new ArrayList<>(options.types.length);
+		for (int i = 0; i < options.types.length; i++) {
+			TypeObject obj = new TypeObject(options.types[i].createBuilder());
+			obj.count.set(options.counts[i]);
 			l.add(obj);
 		}
 
-		this.seed1.setText(s1);
-		this.seed2.setText(s2);
+		this.seed1.setText(options.seed1);
+		this.seed2.setText(options.seed2);
 		this.types.getItems().setAll(l);
 	}
 
-	public void write(DataOutputStream out) throws IOException {
-		out.writeInt(CURRENT_VERSION);
-
-		out.writeUTF(this.seed1.getText());
-		out.writeUTF(this.seed2.getText());
-
+	public GenerationOptions getOptions() {
 		List<TypeObject> l = this.types.getItems();
-		out.writeInt(l.size());
-		for (TypeObject t : l) {
-			out.writeUTF(t.builder.getTypeName());
-			t.builder.write(out);
-			out.writeInt(t.count.get());
+		TypeOptions<?>[] types = new TypeOptions<?>[l.size()];
+		int[] counts = new int[l.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = l.get(i).builder.getOptions();
+			counts[i] = l.get(i).count.get();
 		}
+		return new GenerationOptions(this.seed1.getText(), this.seed2.getText(), types, counts);
 	}
 
 	public void generateParticles(Universe universe) {
-		Random r = new Random(this.genSeed);
-		for (TypeObject cfg : this.types.getItems()) {
-			Type type = cfg.builder.build(universe).orElse(null);
-			if (type != null) {
-				int c = cfg.count.getValue();
-				for (int i = 0; i < c; i++)
-					universe.add(type.createRandom(r));
-			}
-		}
+		getOptions().generateParticles(universe);
 	}
 
 	public static class TypeObject {
@@ -331,7 +314,7 @@ public class GenerationPanel extends GridPane {
 
 	public class TypeCell extends ListCell<TypeObject> {
 		private final Label typeName = new Label();
-		private final IntegerField count = new IntegerField(0, 3000);
+		private final IntegerField count = new IntegerField(0, GenerationOptions.MAX_COUNT);
 		private final ColorPicker colorPicker = new ColorPicker();
 		private final StackPane options = new StackPane();
 		private final GridPane pane = new GridPane();
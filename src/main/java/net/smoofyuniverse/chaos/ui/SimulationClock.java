@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.ui;
+
+import java.util.concurrent.locks.LockSupport;
+
+public final class SimulationClock {
+	private static final long SPIN_THRESHOLD = 200_000, RATE_WINDOW = 1_000_000_000;
+
+	private long period, next;
+	private int maxCatchUp = 4;
+	private double jitter, rate;
+	private long windowStart, windowTicks;
+
+	public SimulationClock(long period) {
+		setPeriod(period);
+		reset();
+	}
+
+	// In nanoseconds, zero means unlimited
+	public long getPeriod() {
+		return this.period;
+	}
+
+	public void setPeriod(long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("value");
+		this.period = value;
+		this.next = System.nanoTime();
+	}
+
+	public int getMaxCatchUp() {
+		return this.maxCatchUp;
+	}
+
+	public void setMaxCatchUp(int value) {
+		if (value < 1)
+			throw new IllegalArgumentException("value");
+		this.maxCatchUp = value;
+	}
+
+	public void reset() {
+		long now = System.nanoTime();
+		this.next = now;
+		this.windowStart = now;
+		this.windowTicks = 0;
+	}
+
+	public boolean isUnlimited() {
+		return this.period == 0;
+	}
+
+	public long getNextTick() {
+		return this.next;
+	}
+
+	// Mean absolute lateness of ticks, in nanoseconds
+	public double getJitter() {
+		return this.jitter;
+	}
+
+	// Measured ticks per second
+	public double getRate() {
+		return this.rate;
+	}
+
+	public int poll(long now) {
+		int due;
+		if (this.period == 0) {
+			due = 1;
+			this.next = now;
+		} else {
+			long late = now - this.next;
+			if (late < 0)
+				return 0;
+
+			this.jitter += (late - this.jitter) * 0.05;
+			due = (int) Math.min(late / this.period + 1, this.maxCatchUp);
+			this.next += due * this.period;
+
+			// Too far behind, drop the backlog rather than spiraling
+			if (now - this.next >= this.period)
+				this.next = now + this.period;
+		}
+
+		this.windowTicks += due;
+		long elapsed = now - this.windowStart;
+		if (elapsed >= RATE_WINDOW) {
+			this.rate = this.windowTicks * 1e9 / elapsed;
+			this.windowStart = now;
+			this.windowTicks = 0;
+		}
+		return due;
+	}
+
+	public static void await(long deadline) throws InterruptedException {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+
+			// Parking overshoots by tens of microseconds, so the end is spun
+			if (remaining > SPIN_THRESHOLD)
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+			else
+				Thread.onSpinWait();
+		}
+	}
+}
@@ -22,6 +22,7 @@
 
 package net.smoofyuniverse.chaos.ui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -31,16 +32,22 @@ import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Label;
+import javafx.scene.input.MouseButton;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
 import net.smoofyuniverse.chaos.background.BackgroundGenerator;
 import net.smoofyuniverse.chaos.background.SpaceGenerator;
-import net.smoofyuniverse.chaos.universe.Particle;
+import net.smoofyuniverse.chaos.universe.Checkpoint;
+import net.smoofyuniverse.chaos.universe.Engine;
+import net.smoofyuniverse.chaos.universe.History;
 import net.smoofyuniverse.chaos.universe.Snapshot;
+import net.smoofyuniverse.chaos.universe.Statistics;
 import net.smoofyuniverse.chaos.universe.Universe;
 import net.smoofyuniverse.common.app.Application;
 import net.smoofyuniverse.common.app.ApplicationManager;
@@ -48,33 +55,52 @@ import net.smoofyuniverse.common.app.State;
 import net.smoofyuniverse.common.logger.ApplicationLogger;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class UserInterface extends StackPane {
 	private static final Logger logger = ApplicationLogger.get(UserInterface.class);
+	private static final double BRUSH_RADIUS = 80, BRUSH_STRENGTH = 0.3;
+	// The brush pushes once per period of wall time, whatever the tick period
+	private static final long BRUSH_PERIOD = 25_000_000, MAX_BRUSH_LAG = 4 * BRUSH_PERIOD;
+	private static final double[] SLEEP_TOLERANCES = {0, 0.005, 0.02, 0.05};
+	private static final long FRAME_PERIOD = 1_000_000_000 / 60, MAX_INTERPOLATION = 500_000_000, IDLE_PERIOD = 2_000_000;
 
 	private final GenerationPanel generationPanel = new GenerationPanel();
 	private final Stage stage2 = new Stage();
+	private final FileChooser stateChooser = new FileChooser();
 
 	private final Canvas canvas = new Canvas();
 	private final Label help = new Label("Controls:\nH: Display or hide this help.\nSpace: Pause the universe.\nD: Show details.\nR: Regenerate the universe.\nO: Open options." +
-			"\n+: Increase minimum tick duration.\n-: Decrease minimum tick duration.\n1 to 9: Force n ticks to process.\n0: Clear remaining forced ticks.\nF11: Fullscreen.");
+			"\nS: Save the universe state.\nL: Load a universe state.\nZ: Rewind to a previous state.\nI: Toggle smooth rendering.\nQ: Change the sleep tolerance of quiet particles.\nT: Toggle tabulated forces.\nA: Toggle automatic tuning of the engine and chunks.\nB: Toggle brush mode (left click attracts, right click repels).\n+: Increase tick period.\n-: Decrease tick period, down to unlimited.\n1 to 9: Force n ticks to process.\n0: Clear remaining forced ticks.\nF11: Fullscreen.");
 	private final Label details = new Label();
 
 	private final ExecutorService executor;
 	private final Universe universe;
+	private final History history;
 	private final BackgroundGenerator backgroundGen = new SpaceGenerator(Color.BLACK, Color.BLUE);
 
 	private final BooleanProperty showHelp = new SimpleBooleanProperty(true), showDetails = new SimpleBooleanProperty(false);
 	private boolean pause = true, generate = true;
+	private volatile boolean brush;
+	private volatile double brushX, brushY, brushStrength;
 	private int forcedTicks = 0;
-	private long age, tau = 25;
+	private final SimulationClock clock = new SimulationClock(25_000_000);
+	private volatile boolean interpolate = true;
+	private volatile Frame frame;
+	private double tickTime;
 
 	public UserInterface() {
 		int threads = Runtime.getRuntime().availableProcessors();
 		this.executor = Executors.newFixedThreadPool(threads);
 		this.universe = new Universe(this.executor, threads * 4);
+		this.universe.setClusterInterval(10);
+		// A fixed engine, the tuner makes the choice depend on the timings of the machine and is enabled on demand
+		this.universe.setEngine(Engine.GRID);
+		this.history = new History(ApplicationManager.get().getExecutor(), 50, 256L << 20);
 
 		this.stage2.setScene(new Scene(this.generationPanel));
 		this.stage2.setTitle(ApplicationManager.get().getTitle());
@@ -82,21 +108,50 @@ public class UserInterface extends StackPane {
 		this.stage2.setWidth(750);
 		this.stage2.setHeight(900);
 
-		this.canvas.widthProperty().bind(widthProperty());
-		this.canvas.heightProperty().bind(heightProperty());
+		this.stateChooser.getExtensionFilters().add(new ExtensionFilter("Chaos State", "*.chs"));
 
-		this.canvas.widthProperty().addListener((v, oldV, newV) -> {
-			this.universe.setSizeX(Math.max(newV.doubleValue(), 1));
+		// The canvas follows the window, except after a restore where it takes the size of the restored universe
+		this.canvas.setManaged(false);
+		widthProperty().addListener((v, oldV, newV) -> {
+			double sizeX = Math.max(newV.doubleValue(), 1);
+			this.canvas.setWidth(sizeX);
+			this.universe.submit(u -> u.setSizeX(sizeX));
 			resizeBackground();
 		});
-		this.canvas.heightProperty().addListener((v, oldV, newV) -> {
-			this.universe.setSizeY(Math.max(newV.doubleValue(), 1));
+		heightProperty().addListener((v, oldV, newV) -> {
+			double sizeY = Math.max(newV.doubleValue(), 1);
+			this.canvas.setHeight(sizeY);
+			this.universe.submit(u -> u.setSizeY(sizeY));
 			resizeBackground();
 		});
 
-		setOnMousePressed(e -> this.universe.select(e.getX(), e.getY()));
-		setOnMouseReleased(e -> this.universe.deselect());
-		setOnMouseDragged(e -> this.universe.moveSelection(e.getX(), e.getY()));
+		setOnMousePressed(e -> {
+			if (this.brush) {
+				this.brushX = e.getX();
+				this.brushY = e.getY();
+				this.brushStrength = e.getButton() == MouseButton.SECONDARY ? -BRUSH_STRENGTH : BRUSH_STRENGTH;
+			} else {
+				double x = e.getX(), y = e.getY();
+				this.universe.submit(u -> u.select(x, y));
+			}
+		});
+		setOnMouseReleased(e -> {
+			this.brushStrength = 0;
+			this.universe.submit(Universe::deselect);
+		});
+		setOnMouseMoved(e -> {
+			this.brushX = e.getX();
+			this.brushY = e.getY();
+		});
+		setOnMouseDragged(e -> {
+			if (this.brushStrength != 0) {
+				this.brushX = e.getX();
+				this.brushY = e.getY();
+			} else {
+				double x = e.getX(), y = e.getY();
+				this.universe.submit(u -> u.moveSelection(x, y));
+			}
+		});
 
 		this.showHelp.addListener((v, oldV, newV) -> {
 			if (newV)
@@ -122,10 +177,19 @@ public class UserInterface extends StackPane {
 		StackPane.setMargin(this.details, new Insets(10));
 
 		getChildren().addAll(this.backgroundGen.getNode(), this.canvas, this.help);
+
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				Frame frame = UserInterface.this.frame;
+				if (frame != null)
+					render(frame, now);
+			}
+		}.start();
 	}
 
 	private void resizeBackground() {
-		this.backgroundGen.resize(this.universe.getSizeX(), this.universe.getSizeY());
+		this.backgroundGen.resize(Math.max(this.canvas.getWidth(), 1), Math.max(this.canvas.getHeight(), 1));
 	}
 
 	public void keyTyped(char key) {
@@ -140,20 +204,46 @@ public class UserInterface extends StackPane {
 				this.showDetails.set(!this.showDetails.get());
 				break;
 			case 'R':
-				this.generate = true;
+				this.universe.submit(u -> {
+					u.clear();
+					this.generate = true;
+				});
 				break;
 			case 'O':
 				Application.get().getStage().get().setFullScreen(false);
 				this.stage2.show();
 				this.stage2.requestFocus();
 				break;
+			case 'S':
+				saveState();
+				break;
+			case 'L':
+				loadState();
+				break;
+			case 'Z':
+				this.universe.submit(this::rewind);
+				break;
+			case 'Q':
+				this.universe.submit(u -> u.setSleepTolerance(nextSleepTolerance(u.getSleepTolerance())));
+				break;
+			case 'T':
+				this.universe.submit(u -> u.setForceTolerance(u.getForceTolerance() == 0 ? 1e-3 : 0));
+				break;
+			case 'A':
+				this.universe.submit(u -> u.setAutoTuning(!u.isAutoTuning()));
+				break;
+			case 'I':
+				this.interpolate = !this.interpolate;
+				break;
+			case 'B':
+				this.brush = !this.brush;
+				this.brushStrength = 0;
+				break;
 			case '+':
-				if (this.tau < 100)
-					this.tau++;
+				this.universe.submit(u -> this.clock.setPeriod(slower(this.clock.getPeriod())));
 				break;
 			case '-':
-				if (this.tau > 1)
-					this.tau--;
+				this.universe.submit(u -> this.clock.setPeriod(faster(this.clock.getPeriod())));
 				break;
 			case '0':
 				this.forcedTicks = 0;
@@ -188,57 +278,137 @@ public class UserInterface extends StackPane {
 		}
 	}
 
-	public void run() {
-		while (ApplicationManager.get().getState() != State.SHUTDOWN) {
-			long t = System.currentTimeMillis();
+	private void saveState() {
+		Frame frame = this.frame;
+		if (frame == null)
+			return;
+		Snapshot snapshot = frame.current;
 
-			if (this.generate) {
-				this.universe.clear();
-				this.age = 0;
-			}
+		Application.get().getStage().get().setFullScreen(false);
+		File f = this.stateChooser.showSaveDialog(Application.get().getStage().orElse(null));
+		if (f == null)
+			return;
 
-			if (!this.pause || this.forcedTicks != 0) {
-				if (this.forcedTicks != 0)
-					this.forcedTicks--;
+		Path p = f.toPath();
+		ApplicationManager.get().getExecutor().execute(() -> {
+			try {
+				Checkpoint.write(snapshot, p);
+			} catch (IOException e) {
+				logger.error("Failed to write state to {}", p.getFileName(), e);
+			}
+		});
+	}
 
-				if (this.generate) {
-					this.generationPanel.generateParticles(this.universe);
-					this.generate = false;
-				}
+	private void loadState() {
+		Application.get().getStage().get().setFullScreen(false);
+		File f = this.stateChooser.showOpenDialog(Application.get().getStage().orElse(null));
+		if (f == null)
+			return;
 
-				this.universe.tick();
-				this.age++;
+		Path p = f.toPath();
+		ApplicationManager.get().getExecutor().execute(() -> {
+			try {
+				Snapshot snapshot = Checkpoint.read(this.universe, p);
+				this.universe.submit(u -> {
+					this.history.clear();
+					restore(u, snapshot);
+				});
+			} catch (IOException e) {
+				logger.error("Failed to read state from {}", p.getFileName(), e);
 			}
+		});
+	}
+
+	private void restore(Universe universe, Snapshot snapshot) {
+		this.generate = false;
+
+		universe.restore(snapshot);
+
+		double sizeX = snapshot.sizeX, sizeY = snapshot.sizeY;
+		Platform.runLater(() -> {
+			this.canvas.setWidth(sizeX);
+			this.canvas.setHeight(sizeY);
+			resizeBackground();
+		});
+	}
+
+	private void rewind(Universe universe) {
+		try {
+			Snapshot previous = this.history.rewind(universe);
+			if (previous != null)
+				restore(universe, previous);
+		} catch (IOException e) {
+			logger.error("Failed to rewind universe", e);
+		}
+	}
 
-			Snapshot snapshot = this.universe.snapshot();
+	public void run() {
+		SimulationClock clock = this.clock;
+		long nextFrame = System.nanoTime(), brushTime = nextFrame;
+
+		boolean changed = true;
 
-			long dt = System.currentTimeMillis() - t;
-			Platform.runLater(() -> {
-				GraphicsContext g = this.canvas.getGraphicsContext2D();
+		while (ApplicationManager.get().getState() != State.SHUTDOWN) {
+			// Commands from the FX thread are applied here even while paused
+			if (this.universe.processCommands() != 0)
+				changed = true;
+
+			long now = System.nanoTime();
+			boolean running = !this.pause || this.forcedTicks != 0;
+			if (running) {
+				int ticks = clock.poll(now);
+				if (ticks != 0) {
+					// Fixed steps of wall time, so that the push depends neither on the tick period nor on catching up
+					double strength = this.brushStrength;
+					if (strength == 0) {
+						brushTime = now;
+					} else {
+						brushTime = Math.max(brushTime, now - MAX_BRUSH_LAG);
+						for (; now - brushTime >= BRUSH_PERIOD; brushTime += BRUSH_PERIOD)
+							this.universe.applyImpulse(this.brushX, this.brushY, BRUSH_RADIUS, strength);
+					}
+				}
 
-				long t2 = System.currentTimeMillis();
-				g.clearRect(0, 0, snapshot.sizeX, snapshot.sizeY);
-				snapshot.render(g);
+				for (int i = 0; i < ticks && (!this.pause || this.forcedTicks != 0); i++) {
+					if (this.forcedTicks != 0)
+						this.forcedTicks--;
 
-				if (this.showDetails.get()) {
-					double u = 0;
-					if (snapshot.particles.length != 0) {
-						for (Particle p : snapshot.particles)
-							u += p.speedX * p.speedX + p.speedY * p.speedY;
-						u /= snapshot.particles.length;
+					if (this.generate) {
+						this.generationPanel.generateParticles(this.universe);
+						this.generate = false;
 					}
 
-					this.details.setText("Particles: " + snapshot.particles.length
-							+ "\nRender: " + f(System.currentTimeMillis() - t2) + " ms"
-							+ "\nTick: " + f(dt) + " / " + f(this.tau) + " ms"
-							+ "\nAge: " + this.age
-							+ "\nTemperature: " + ((int) (u * 500)) / 10D + " K");
+					long t = System.nanoTime();
+					this.universe.tick();
+					this.tickTime += (System.nanoTime() - t - this.tickTime) * 0.1;
+					changed = true;
 				}
-			});
+			} else {
+				clock.reset();
+				brushTime = now;
+			}
+
+			// The FX thread renders at the display rate, new states are published at most once per frame
+			now = System.nanoTime();
+			if (changed && now - nextFrame >= 0) {
+				nextFrame = now + FRAME_PERIOD;
+				changed = false;
+
+				Snapshot snapshot = this.universe.snapshot();
+				this.history.record(snapshot);
+
+				Frame last = this.frame;
+				this.frame = last == null ? new Frame(this.universe, clock, this.tickTime, null, snapshot, now, 0)
+						: new Frame(this.universe, clock, this.tickTime, last.current, snapshot, now, Math.min(now - last.time, MAX_INTERPOLATION));
+			}
 
-			t = System.currentTimeMillis() - t;
 			try {
-				Thread.sleep(Math.max(1, this.tau - t));
+				if (!running || !clock.isUnlimited()) {
+					long deadline = running ? clock.getNextTick() : now + IDLE_PERIOD;
+					if (changed && nextFrame - deadline < 0)
+						deadline = nextFrame;
+					SimulationClock.await(deadline);
+				}
 			} catch (InterruptedException e) {
 				logger.error("Interruption", e);
 				return;
@@ -248,7 +418,106 @@ public class UserInterface extends StackPane {
 		this.executor.shutdown();
 	}
 
-	private static String f(long v) {
-		return v < 10 ? ("0" + v) : Long.toString(v);
+	private void render(Frame frame, long now) {
+		GraphicsContext g = this.canvas.getGraphicsContext2D();
+		Snapshot snapshot = frame.current;
+
+		long t = System.nanoTime();
+		g.clearRect(0, 0, snapshot.sizeX, snapshot.sizeY);
+		if (this.interpolate && frame.previous != null && frame.interval != 0)
+			snapshot.render(g, frame.previous, Math.min((now - frame.time) / (double) frame.interval, 1));
+		else
+			snapshot.render(g);
+
+		if (this.brush) {
+			g.setStroke(this.brushStrength < 0 ? Color.RED : Color.WHITE);
+			g.setLineWidth(1);
+			// Wrapped across the edges like the particles it pushes
+			double x = this.brushX, y = this.brushY;
+			for (int i = -1; i <= 1; i++) {
+				double cx = x + i * snapshot.sizeX;
+				if (cx + BRUSH_RADIUS < 0 || cx - BRUSH_RADIUS > snapshot.sizeX)
+					continue;
+				for (int j = -1; j <= 1; j++) {
+					double cy = y + j * snapshot.sizeY;
+					if (cy + BRUSH_RADIUS < 0 || cy - BRUSH_RADIUS > snapshot.sizeY)
+						continue;
+					g.strokeOval(cx - BRUSH_RADIUS, cy - BRUSH_RADIUS, BRUSH_RADIUS * 2, BRUSH_RADIUS * 2);
+				}
+			}
+		}
+
+		if (this.showDetails.get()) {
+			Statistics stats = snapshot.statistics;
+			this.details.setText("Particles: " + snapshot.particles.length + " (" + stats.getTypeCount() + " types)"
+					+ "\nRender: " + ms(System.nanoTime() - t) + " ms"
+					+ "\nTick: " + ms(frame.tickTime) + " / " + (frame.period == 0 ? "unlimited" : ms(frame.period) + " ms")
+					+ "\nRate: " + (int) frame.rate + " ticks/s (jitter: " + ms(frame.jitter) + " ms)"
+					+ "\nAge: " + snapshot.age
+					+ "\nHistory: " + this.history.size() + " states (" + (this.history.getMemoryUsage() >> 20) + " MB)"
+					+ "\nTemperature: " + ((int) (stats.getTemperature() * 10)) / 10D + " K"
+					+ "\nMean speed: " + ((int) (stats.meanSpeed * 100)) / 100D
+					+ "\nMomentum: " + ((int) (stats.momentumX * 10)) / 10D + ", " + ((int) (stats.momentumY * 10)) / 10D
+					+ "\nEngine: " + frame.engine + (frame.autoTuning ? " (tuned, " : " (") + frame.chunks + " chunks, imbalance: " + ((int) (frame.loadImbalance * 100)) / 100D + ")"
+					+ "\nForces: " + (frame.forceTolerance == 0 ? "exact" : "tabulated (tolerance: " + frame.forceTolerance + ")")
+					+ "\nSleeping: " + stats.sleeping + " (tolerance: " + frame.sleepTolerance + ")"
+					+ "\nClusters: " + snapshot.clusters.size() + " (largest: " + snapshot.clusters.getLargest() + ")");
+		}
+	}
+
+	// Built on the simulation thread, so that the FX thread never reads the settings of the universe nor the clock
+	private static final class Frame {
+		final Snapshot previous, current;
+		final long time, interval, period;
+		final double tickTime, rate, jitter;
+		final Engine engine;
+		final boolean autoTuning;
+		final int chunks;
+		final double loadImbalance, forceTolerance, sleepTolerance;
+
+		Frame(Universe universe, SimulationClock clock, double tickTime, Snapshot previous, Snapshot current, long time, long interval) {
+			this.previous = previous;
+			this.current = current;
+			this.time = time;
+			this.interval = interval;
+			this.period = clock.getPeriod();
+			this.tickTime = tickTime;
+			this.rate = clock.getRate();
+			this.jitter = clock.getJitter();
+			this.engine = universe.getEngine();
+			this.autoTuning = universe.isAutoTuning();
+			this.chunks = universe.getChunks();
+			this.loadImbalance = universe.getLoadImbalance();
+			this.forceTolerance = universe.getForceTolerance();
+			this.sleepTolerance = universe.getSleepTolerance();
+		}
+	}
+
+	private static double nextSleepTolerance(double tolerance) {
+		for (int i = 0; i < SLEEP_TOLERANCES.length - 1; i++) {
+			if (tolerance < SLEEP_TOLERANCES[i + 1])
+				return SLEEP_TOLERANCES[i + 1];
+		}
+		return SLEEP_TOLERANCES[0];
+	}
+
+	private static long slower(long period) {
+		if (period == 0)
+			return 100_000;
+		if (period < 1_000_000)
+			return period + 100_000;
+		return Math.min(period + 1_000_000, 100_000_000);
+	}
+
+	private static long faster(long period) {
+		if (period > 1_000_000)
+			return period - 1_000_000;
+		if (period > 100_000)
+			return period - 100_000;
+		return 0;
+	}
+
+	private static String ms(double nanos) {
+		return Double.toString(Math.round(nanos / 10_000) / 100D);
 	}
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Periodically runs a few ticks with another configuration and keeps it when it is clearly faster
+final class AutoTuner {
+	private static final Logger logger = ApplicationLogger.get(AutoTuner.class);
+
+	// Ticks between two trials and length of a trial, the first tick of a trial is not measured
+	static final int INTERVAL = 50, TRIAL = 5;
+	// A candidate must be faster than the current configuration by this fraction
+	static final double HYSTERESIS = 0.1;
+	// A trial stops as soon as one tick is this many times slower than the current configuration
+	static final double ABORT = 2;
+
+	private final Config[] candidates;
+	private Config current, trial;
+	private double cost;
+	private int ticks, next, size = -1;
+	private int trialTicks;
+	private long trialTime;
+
+	AutoTuner(Universe universe) {
+		this.current = new Config(universe.getEngine(), universe.getChunks(), universe.getCellScale());
+
+		int base = universe.getChunks();
+		int[] chunks = base == 1 ? new int[]{1, 2} : new int[]{base / 2, base, base * 2};
+
+		List<Config> candidates = new ArrayList<>();
+		for (int c : chunks) {
+			candidates.add(new Config(Engine.BRUTE_FORCE, c, universe.getCellScale()));
+			candidates.add(new Config(Engine.GRID, c, 1));
+			candidates.add(new Config(Engine.GRID, c, 0.5));
+			candidates.add(new Config(Engine.SYMMETRIC_GRID, c, 1));
+			candidates.add(new Config(Engine.SYMMETRIC_GRID, c, 0.5));
+			candidates.add(new Config(Engine.HIERARCHICAL_GRID, c, universe.getCellScale()));
+		}
+		this.candidates = candidates.toArray(new Config[0]);
+	}
+
+	void update(Universe universe, long time) {
+		int size = universe.size();
+		if (size != this.size) {
+			// Costs measured with another number of particles cannot be compared
+			if (this.trial != null) {
+				this.trial = null;
+				this.current.apply(universe);
+			}
+			this.size = size;
+			this.cost = 0;
+			this.ticks = 0;
+			return;
+		}
+
+		if (this.trial == null) {
+			this.cost = this.cost == 0 ? time : this.cost * 0.8 + time * 0.2;
+			if (++this.ticks >= INTERVAL) {
+				Config c = nextCandidate(universe.isStrictDeterminism());
+				if (c == null) {
+					this.ticks = 0;
+					return;
+				}
+
+				this.trial = c;
+				this.trialTicks = 0;
+				this.trialTime = 0;
+				c.apply(universe);
+			}
+			return;
+		}
+
+		// The warm-up tick is neither measured nor allowed to abort the trial
+		boolean warmup = this.trialTicks++ == 0;
+		if (!warmup)
+			this.trialTime += time;
+
+		boolean aborted = !warmup && time > this.cost * ABORT;
+		if (this.trialTicks <= TRIAL && !aborted)
+			return;
+
+		double trialCost = aborted ? time : this.trialTime / (double) TRIAL;
+		if (!aborted && trialCost < this.cost * (1 - HYSTERESIS)) {
+			logger.info("Switching from {} to {} with {} particles: {} ms/tick instead of {} ms/tick", this.current, this.trial, size, trialCost / 1e6, this.cost / 1e6);
+			this.current = this.trial;
+			this.cost = trialCost;
+		} else {
+			logger.debug("Keeping {} with {} particles: {} took {} ms/tick against {} ms/tick", this.current, size, this.trial, trialCost / 1e6, this.cost / 1e6);
+			this.current.apply(universe);
+		}
+		this.trial = null;
+		this.ticks = 0;
+	}
+
+	// In strict mode, only the candidates giving the same results as the current config
+	private Config nextCandidate(boolean strict) {
+		for (int i = 0; i < this.candidates.length; i++) {
+			Config c = this.candidates[this.next++ % this.candidates.length];
+			if (!c.equals(this.current) && (!strict || c.sameResults(this.current)))
+				return c;
+		}
+		return null;
+	}
+
+	private static final class Config {
+		final Engine engine;
+		final int chunks;
+		final double cellScale;
+
+		Config(Engine engine, int chunks, double cellScale) {
+			this.engine = engine;
+			this.chunks = chunks;
+			this.cellScale = cellScale;
+		}
+
+		void apply(Universe universe) {
+			universe.setEngine(this.engine);
+			universe.setChunks(this.chunks);
+			universe.setCellScale(this.cellScale);
+		}
+
+		boolean usesCellScale() {
+			return this.engine == Engine.GRID || this.engine == Engine.SYMMETRIC_GRID;
+		}
+
+		// Whether the configs differ at most by their number of chunks
+		boolean sameResults(Config c) {
+			return this.engine == c.engine && (!usesCellScale() || this.cellScale == c.cellScale);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Config))
+				return false;
+			Config c = (Config) obj;
+			return this.chunks == c.chunks && sameResults(c);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.engine.hashCode() * 31 + this.chunks;
+		}
+
+		@Override
+		public String toString() {
+			return usesCellScale() ? this.engine + " (" + this.chunks + " chunks, cells x" + this.cellScale + ")" : this.engine + " (" + this.chunks + " chunks)";
+		}
+	}
+}
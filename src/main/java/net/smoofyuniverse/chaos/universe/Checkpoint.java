@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.type.TypeReader;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+
+public final class Checkpoint {
+	// The particles are stored column by column in little endian, the idle ticks included so that sleeping particles stay asleep
+	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+	public static final int PARTICLE_BYTES = 4 + 7 * 8 + 8 + 4;
+	private static final Logger logger = ApplicationLogger.get(Checkpoint.class);
+	static final int BUFFER_SIZE = 1 << 22;
+
+	private Checkpoint() {}
+
+	public static void write(Snapshot snapshot, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(snapshot, channel);
+		}
+	}
+
+	public static void write(Snapshot snapshot, WritableByteChannel channel) throws IOException {
+		write(snapshot, channel, ByteBuffer.allocateDirect(BUFFER_SIZE));
+	}
+
+	static void write(Snapshot snapshot, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		Particle[] particles = snapshot.particles;
+		int count = particles.length;
+		writeHeader(snapshot.sizeX, snapshot.sizeY, snapshot.age, snapshot.types, count, channel, buffer);
+
+		writeColumn(i -> particles[i].accelerationX, count, channel, buffer);
+		writeColumn(i -> particles[i].accelerationY, count, channel, buffer);
+		writeColumn(i -> particles[i].speedX, count, channel, buffer);
+		writeColumn(i -> particles[i].speedY, count, channel, buffer);
+		writeColumn(i -> particles[i].positionX, count, channel, buffer);
+		writeColumn(i -> particles[i].positionY, count, channel, buffer);
+		writeColumn(i -> particles[i].radius, count, channel, buffer);
+		writeLongColumn(i -> particles[i].ticks, count, channel, buffer);
+		writeIntColumn(i -> particles[i].typeId, count, channel, buffer);
+		writeIntColumn(i -> particles[i].idle, count, channel, buffer);
+		flush(buffer, channel);
+	}
+
+	// Must run on the simulation thread, see Universe.submit
+	// The particles are written from the store without taking a snapshot, off-heap columns are mapped into the file
+	public static void write(Universe universe, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(universe, channel);
+		}
+	}
+
+	public static void write(Universe universe, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ParticleStore s = universe.getParticles();
+		int count = s.size();
+		writeHeader(universe.getSizeX(), universe.getSizeY(), universe.getAge(), s.getTypeTable().toArray(), count, channel, buffer);
+
+		s.writeParticles(channel, buffer);
+	}
+
+	// Leaves the particle count in the buffer, switched to the byte order of the columns
+	private static void writeHeader(double sizeX, double sizeY, long age, Type[] types, int count, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeDouble(sizeX);
+			out.writeDouble(sizeY);
+			out.writeLong(age);
+
+			out.writeInt(types.length);
+			for (Type type : types) {
+				ByteArrayOutputStream typeBytes = new ByteArrayOutputStream();
+				try (DataOutputStream typeOut = new DataOutputStream(typeBytes)) {
+					type.write(typeOut);
+				}
+
+				out.writeUTF(type.getTypeName());
+				out.writeInt(typeBytes.size());
+				typeBytes.writeTo(out);
+			}
+		}
+
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		buffer.putInt(CURRENT_VERSION);
+		buffer.putInt(bytes.size());
+		flush(buffer, channel);
+
+		ByteBuffer header = ByteBuffer.wrap(bytes.toByteArray());
+		while (header.hasRemaining())
+			channel.write(header);
+
+		buffer.putInt(count);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static void writeColumn(IntToDoubleFunction column, int count, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < Double.BYTES)
+				flush(buffer, channel);
+			buffer.putDouble(column.applyAsDouble(i));
+		}
+	}
+
+	static void writeLongColumn(IntToLongFunction column, int count, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < Long.BYTES)
+				flush(buffer, channel);
+			buffer.putLong(column.applyAsLong(i));
+		}
+	}
+
+	static void writeIntColumn(IntUnaryOperator column, int count, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < Integer.BYTES)
+				flush(buffer, channel);
+			buffer.putInt(column.applyAsInt(i));
+		}
+	}
+
+	static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	public static Snapshot read(Universe universe, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + size + " bytes");
+			return read(universe, channel.map(MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	public static Snapshot read(Universe universe, ByteBuffer buffer) throws IOException {
+		try {
+			int version = buffer.getInt();
+			if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
+				throw new IOException("Invalid format version: " + version);
+
+			int headerSize = buffer.getInt();
+			if (headerSize < 0 || headerSize > buffer.remaining())
+				throw new IOException("Invalid header size: " + headerSize);
+
+			byte[] header = new byte[headerSize];
+			buffer.get(header);
+
+			double sizeX, sizeY;
+			long age;
+			Type[] types;
+			int[] ids;
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(header))) {
+				sizeX = in.readDouble();
+				sizeY = in.readDouble();
+				age = in.readLong();
+				if (!(sizeX > 0) || !(sizeY > 0) || age < 0)
+					throw new IOException("Invalid universe dimensions");
+
+				int typeCount = in.readInt();
+				if (typeCount < 0)
+					throw new IOException("Invalid type count: " + typeCount);
+
+				// Unknown types are dropped, the ids of the others are remapped
+				ids = new int[typeCount];
+				types = new Type[typeCount];
+				int known = 0;
+				for (int i = 0; i < typeCount; i++) {
+					ids[i] = -1;
+
+					String typeName = in.readUTF();
+					int typeSize = in.readInt();
+					if (typeSize < 0)
+						throw new IOException("Invalid type size: " + typeSize);
+
+					byte[] typeBytes = new byte[typeSize];
+					in.readFully(typeBytes);
+
+					TypeReader reader = Type.REGISTRY.get(typeName);
+					if (reader == null) {
+						logger.warn("Skipping unknown type name {}", typeName);
+						continue;
+					}
+
+					try (DataInputStream typeIn = new DataInputStream(new ByteArrayInputStream(typeBytes))) {
+						types[known] = reader.read(universe, typeIn);
+					}
+					ids[i] = known++;
+				}
+				if (known != typeCount)
+					types = Arrays.copyOf(types, known);
+			}
+
+			int count = buffer.getInt();
+			if (count < 0 || (long) count * PARTICLE_BYTES > buffer.remaining())
+				throw new IOException("Invalid particle count: " + count);
+
+			Particle[] particles = new Particle[count];
+			int size = 0;
+			ByteOrder order = buffer.order();
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			// Seven double columns, then the ticks, the type ids and the idle ticks
+			int base = buffer.position(), column = count * Double.BYTES, idBase = base + 8 * column, idleBase = idBase + count * Integer.BYTES;
+			for (int i = 0; i < count; i++) {
+				int id = buffer.getInt(idBase + i * Integer.BYTES);
+				if (id < 0 || id >= ids.length)
+					throw new IOException("Invalid type id: " + id);
+
+				int o = base + i * Double.BYTES;
+				Particle p = new Particle();
+				p.typeId = ids[id];
+				p.accelerationX = buffer.getDouble(o);
+				p.accelerationY = buffer.getDouble(o + column);
+				p.speedX = buffer.getDouble(o + 2 * column);
+				p.speedY = buffer.getDouble(o + 3 * column);
+				p.positionX = buffer.getDouble(o + 4 * column);
+				p.positionY = buffer.getDouble(o + 5 * column);
+				p.radius = buffer.getDouble(o + 6 * column);
+				p.ticks = buffer.getLong(o + 7 * column);
+				p.idle = buffer.getInt(idleBase + i * Integer.BYTES);
+
+				if (p.typeId != -1)
+					particles[size++] = p;
+			}
+
+			buffer.position(base + count * PARTICLE_BYTES);
+			buffer.order(order);
+
+			return new Snapshot(sizeX, sizeY, age, types, size == count ? particles : Arrays.copyOf(particles, size), Statistics.EMPTY);
+		} catch (BufferUnderflowException e) {
+			throw new EOFException("Truncated checkpoint");
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.universe.Clusters.Cluster;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+final class ClusterAnalyzer {
+	private final SpatialGrid grid = new SpatialGrid();
+	private Clusters previous = Clusters.EMPTY;
+	private int nextId;
+
+	int minSize = 5;
+	double matchDistance = 50;
+
+	void reset() {
+		this.previous = Clusters.EMPTY;
+		this.nextId = 0;
+	}
+
+	Clusters analyze(Universe universe, Statistics statistics) {
+		ParticleStore s = universe.getParticles();
+		int size = s.size();
+		long age = universe.getAge();
+
+		if (age < this.previous.age)
+			reset();
+
+		double maxRadius = 0;
+		for (int i = 0; i < statistics.getTypeCount(); i++)
+			maxRadius = Math.max(maxRadius, statistics.getType(i).getRepulsionRadius());
+		if (size == 0 || maxRadius <= 0)
+			return this.previous = new Clusters(age, new Cluster[0]);
+
+		this.grid.update(universe, s, null, 0, size, universe.getSizeX(), universe.getSizeY(), maxRadius);
+
+		AtomicIntegerArray parent = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; i++)
+			parent.set(i, i);
+
+		universe.forEachChunk((chunk, start, end) -> {
+			int[] cells = new int[9];
+			for (int i = start; i < end; i++) {
+				double x = s.getPositionX(i), y = s.getPositionY(i), r = s.getType(i).getRepulsionRadius();
+				int n = this.grid.getNeighborCells(this.grid.getCell(i), cells);
+
+				for (int k = 0; k < n; k++) {
+					int cellEnd = this.grid.getCellEnd(cells[k]);
+					for (int slot = this.grid.getCellStart(cells[k]); slot < cellEnd; slot++) {
+						int j = this.grid.getParticle(slot);
+						if (j <= i)
+							continue;
+
+						double dx = universe.getDeltaX(x, s.getPositionX(j)), dy = universe.getDeltaY(y, s.getPositionY(j));
+						double d = Math.max(r, s.getType(j).getRepulsionRadius());
+						if (dx * dx + dy * dy < d * d)
+							union(parent, i, j);
+					}
+				}
+			}
+		}, size);
+
+		// Sizes and circular means of positions, the universe is a torus
+		int[] labels = new int[size], counts = new int[size];
+		double[] cosX = new double[size], sinX = new double[size], cosY = new double[size], sinY = new double[size];
+		double ax = 2 * Math.PI / universe.getSizeX(), ay = 2 * Math.PI / universe.getSizeY();
+
+		int roots = 0;
+		for (int i = 0; i < size; i++) {
+			int root = find(parent, i);
+			int label = root == i ? roots++ : labels[root];
+			labels[i] = label;
+
+			counts[label]++;
+			double x = s.getPositionX(i) * ax, y = s.getPositionY(i) * ay;
+			cosX[label] += Math.cos(x);
+			sinX[label] += Math.sin(x);
+			cosY[label] += Math.cos(y);
+			sinY[label] += Math.sin(y);
+		}
+
+		Cluster[] clusters = new Cluster[roots];
+		int n = 0;
+		for (int c = 0; c < roots; c++) {
+			if (counts[c] >= this.minSize) {
+				double x = Math.atan2(sinX[c], cosX[c]) / ax, y = Math.atan2(sinY[c], cosY[c]) / ay;
+				if (x < 0)
+					x += universe.getSizeX();
+				if (y < 0)
+					y += universe.getSizeY();
+				clusters[n++] = new Cluster(-1, counts[c], x, y, 0, 0, age);
+			}
+		}
+
+		clusters = Arrays.copyOf(clusters, n);
+		Arrays.sort(clusters, Comparator.comparingInt((Cluster c) -> c.size).reversed());
+
+		return this.previous = new Clusters(age, track(universe, clusters, age));
+	}
+
+	private Cluster[] track(Universe universe, Cluster[] clusters, long age) {
+		Clusters previous = this.previous;
+		boolean[] matched = new boolean[previous.size()];
+		long dt = age - previous.age;
+		double maxD2 = this.matchDistance * this.matchDistance;
+
+		// Largest clusters pick their predecessor first
+		for (int i = 0; i < clusters.length; i++) {
+			Cluster c = clusters[i];
+			int best = -1;
+			double bestD2 = maxD2;
+
+			for (int j = 0; j < previous.size(); j++) {
+				if (matched[j])
+					continue;
+
+				Cluster p = previous.get(j);
+				if (p.size * 2 < c.size || c.size * 2 < p.size)
+					continue;
+
+				double dx = universe.getDeltaX(p.positionX, c.positionX), dy = universe.getDeltaY(p.positionY, c.positionY);
+				double d2 = dx * dx + dy * dy;
+				if (d2 < bestD2) {
+					bestD2 = d2;
+					best = j;
+				}
+			}
+
+			if (best == -1 || dt <= 0) {
+				clusters[i] = new Cluster(this.nextId++, c.size, c.positionX, c.positionY, 0, 0, age);
+			} else {
+				matched[best] = true;
+				Cluster p = previous.get(best);
+				double dx = universe.getDeltaX(p.positionX, c.positionX), dy = universe.getDeltaY(p.positionY, c.positionY);
+				clusters[i] = new Cluster(p.id, c.size, c.positionX, c.positionY, dx / dt, dy / dt, p.firstSeen);
+			}
+		}
+
+		return clusters;
+	}
+
+	private static int find(AtomicIntegerArray parent, int i) {
+		while (true) {
+			int p = parent.get(i);
+			if (p == i)
+				return i;
+
+			int gp = parent.get(p);
+			if (gp != p)
+				parent.compareAndSet(i, p, gp); // Path halving
+			i = gp;
+		}
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if (a == b)
+				return;
+
+			// Always link the larger root under the smaller one, so no cycle can form
+			if (a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+
+			if (parent.compareAndSet(a, a, b))
+				return;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+public final class Clusters {
+	public static final Clusters EMPTY = new Clusters(0, new Cluster[0]);
+
+	public final long age;
+	private final Cluster[] clusters;
+
+	Clusters(long age, Cluster[] clusters) {
+		this.age = age;
+		this.clusters = clusters;
+	}
+
+	public int size() {
+		return this.clusters.length;
+	}
+
+	public Cluster get(int i) {
+		return this.clusters[i];
+	}
+
+	public int getLargest() {
+		return this.clusters.length == 0 ? 0 : this.clusters[0].size;
+	}
+
+	public double getMeanSize() {
+		if (this.clusters.length == 0)
+			return 0;
+
+		long total = 0;
+		for (Cluster c : this.clusters)
+			total += c.size;
+		return total / (double) this.clusters.length;
+	}
+
+	public static final class Cluster {
+		public final int id, size;
+		public final double positionX, positionY, speedX, speedY;
+		public final long firstSeen;
+
+		Cluster(int id, int size, double positionX, double positionY, double speedX, double speedY, long firstSeen) {
+			this.id = id;
+			this.size = size;
+			this.positionX = positionX;
+			this.positionY = positionY;
+			this.speedX = speedX;
+			this.speedY = speedY;
+			this.firstSeen = firstSeen;
+		}
+	}
+}
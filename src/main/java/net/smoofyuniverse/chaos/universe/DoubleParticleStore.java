@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import java.util.Arrays;
+
+final class DoubleParticleStore extends HeapParticleStore {
+	private double[] forceX, forceY;
+	private double[] accelerationX, accelerationY;
+	private double[] speedX, speedY;
+	private double[] positionX, positionY;
+
+	@Override
+	public Precision getPrecision() {
+		return Precision.DOUBLE;
+	}
+
+	@Override
+	void allocateColumns(int capacity) {
+		super.allocateColumns(capacity);
+		this.forceX = new double[capacity];
+		this.forceY = new double[capacity];
+		this.accelerationX = new double[capacity];
+		this.accelerationY = new double[capacity];
+		this.speedX = new double[capacity];
+		this.speedY = new double[capacity];
+		this.positionX = new double[capacity];
+		this.positionY = new double[capacity];
+	}
+
+	@Override
+	void resizeColumns(int capacity) {
+		super.resizeColumns(capacity);
+		this.forceX = Arrays.copyOf(this.forceX, capacity);
+		this.forceY = Arrays.copyOf(this.forceY, capacity);
+		this.accelerationX = Arrays.copyOf(this.accelerationX, capacity);
+		this.accelerationY = Arrays.copyOf(this.accelerationY, capacity);
+		this.speedX = Arrays.copyOf(this.speedX, capacity);
+		this.speedY = Arrays.copyOf(this.speedY, capacity);
+		this.positionX = Arrays.copyOf(this.positionX, capacity);
+		this.positionY = Arrays.copyOf(this.positionY, capacity);
+	}
+
+	@Override
+	void moveColumns(int from, int to) {
+		super.moveColumns(from, to);
+		this.forceX[to] = this.forceX[from];
+		this.forceY[to] = this.forceY[from];
+		this.accelerationX[to] = this.accelerationX[from];
+		this.accelerationY[to] = this.accelerationY[from];
+		this.speedX[to] = this.speedX[from];
+		this.speedY[to] = this.speedY[from];
+		this.positionX[to] = this.positionX[from];
+		this.positionY[to] = this.positionY[from];
+	}
+
+	@Override
+	void addColumns(Particle template, int typeId, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int start, int length) {
+		super.addColumns(template, typeId, positionX, positionY, speedX, speedY, offset, start, length);
+		int end = start + length;
+		System.arraycopy(positionX, offset, this.positionX, start, length);
+		System.arraycopy(positionY, offset, this.positionY, start, length);
+		System.arraycopy(speedX, offset, this.speedX, start, length);
+		System.arraycopy(speedY, offset, this.speedY, start, length);
+
+		Arrays.fill(this.forceX, start, end, 0);
+		Arrays.fill(this.forceY, start, end, 0);
+		Arrays.fill(this.accelerationX, start, end, template.accelerationX);
+		Arrays.fill(this.accelerationY, start, end, template.accelerationY);
+	}
+
+	@Override
+	public double getForceX(int i) {
+		return this.forceX[i];
+	}
+
+	@Override
+	public double getForceY(int i) {
+		return this.forceY[i];
+	}
+
+	@Override
+	public void addForce(int i, double x, double y) {
+		this.forceX[i] += x;
+		this.forceY[i] += y;
+	}
+
+	@Override
+	public void setForce(int i, double x, double y) {
+		this.forceX[i] = x;
+		this.forceY[i] = y;
+	}
+
+	@Override
+	public double getAccelerationX(int i) {
+		return this.accelerationX[i];
+	}
+
+	@Override
+	public double getAccelerationY(int i) {
+		return this.accelerationY[i];
+	}
+
+	@Override
+	public void setAcceleration(int i, double x, double y) {
+		this.accelerationX[i] = x;
+		this.accelerationY[i] = y;
+	}
+
+	@Override
+	public double getSpeedX(int i) {
+		return this.speedX[i];
+	}
+
+	@Override
+	public double getSpeedY(int i) {
+		return this.speedY[i];
+	}
+
+	@Override
+	public void setSpeed(int i, double x, double y) {
+		this.speedX[i] = x;
+		this.speedY[i] = y;
+	}
+
+	@Override
+	public double getPositionX(int i) {
+		return this.positionX[i];
+	}
+
+	@Override
+	public double getPositionY(int i) {
+		return this.positionY[i];
+	}
+
+	@Override
+	public void setPosition(int i, double x, double y) {
+		this.positionX[i] = x;
+		this.positionY[i] = y;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import java.util.Arrays;
+
+// Motion columns rounded to single precision, the forces are accumulated in float as well
+final class FloatParticleStore extends HeapParticleStore {
+	private float[] forceX, forceY;
+	private float[] accelerationX, accelerationY;
+	private float[] speedX, speedY;
+	private float[] positionX, positionY;
+
+	@Override
+	public Precision getPrecision() {
+		return Precision.FLOAT;
+	}
+
+	@Override
+	void allocateColumns(int capacity) {
+		super.allocateColumns(capacity);
+		this.forceX = new float[capacity];
+		this.forceY = new float[capacity];
+		this.accelerationX = new float[capacity];
+		this.accelerationY = new float[capacity];
+		this.speedX = new float[capacity];
+		this.speedY = new float[capacity];
+		this.positionX = new float[capacity];
+		this.positionY = new float[capacity];
+	}
+
+	@Override
+	void resizeColumns(int capacity) {
+		super.resizeColumns(capacity);
+		this.forceX = Arrays.copyOf(this.forceX, capacity);
+		this.forceY = Arrays.copyOf(this.forceY, capacity);
+		this.accelerationX = Arrays.copyOf(this.accelerationX, capacity);
+		this.accelerationY = Arrays.copyOf(this.accelerationY, capacity);
+		this.speedX = Arrays.copyOf(this.speedX, capacity);
+		this.speedY = Arrays.copyOf(this.speedY, capacity);
+		this.positionX = Arrays.copyOf(this.positionX, capacity);
+		this.positionY = Arrays.copyOf(this.positionY, capacity);
+	}
+
+	@Override
+	void moveColumns(int from, int to) {
+		super.moveColumns(from, to);
+		this.forceX[to] = this.forceX[from];
+		this.forceY[to] = this.forceY[from];
+		this.accelerationX[to] = this.accelerationX[from];
+		this.accelerationY[to] = this.accelerationY[from];
+		this.speedX[to] = this.speedX[from];
+		this.speedY[to] = this.speedY[from];
+		this.positionX[to] = this.positionX[from];
+		this.positionY[to] = this.positionY[from];
+	}
+
+	@Override
+	void addColumns(Particle template, int typeId, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int start, int length) {
+		super.addColumns(template, typeId, positionX, positionY, speedX, speedY, offset, start, length);
+		int end = start + length;
+		for (int i = 0; i < length; i++) {
+			this.positionX[start + i] = (float) positionX[offset + i];
+			this.positionY[start + i] = (float) positionY[offset + i];
+			this.speedX[start + i] = (float) speedX[offset + i];
+			this.speedY[start + i] = (float) speedY[offset + i];
+		}
+
+		Arrays.fill(this.forceX, start, end, 0);
+		Arrays.fill(this.forceY, start, end, 0);
+		Arrays.fill(this.accelerationX, start, end, (float) template.accelerationX);
+		Arrays.fill(this.accelerationY, start, end, (float) template.accelerationY);
+	}
+
+	@Override
+	public double getForceX(int i) {
+		return this.forceX[i];
+	}
+
+	@Override
+	public double getForceY(int i) {
+		return this.forceY[i];
+	}
+
+	@Override
+	public void addForce(int i, double x, double y) {
+		this.forceX[i] += (float) x;
+		this.forceY[i] += (float) y;
+	}
+
+	@Override
+	public void setForce(int i, double x, double y) {
+		this.forceX[i] = (float) x;
+		this.forceY[i] = (float) y;
+	}
+
+	@Override
+	public double getAccelerationX(int i) {
+		return this.accelerationX[i];
+	}
+
+	@Override
+	public double getAccelerationY(int i) {
+		return this.accelerationY[i];
+	}
+
+	@Override
+	public void setAcceleration(int i, double x, double y) {
+		this.accelerationX[i] = (float) x;
+		this.accelerationY[i] = (float) y;
+	}
+
+	@Override
+	public double getSpeedX(int i) {
+		return this.speedX[i];
+	}
+
+	@Override
+	public double getSpeedY(int i) {
+		return this.speedY[i];
+	}
+
+	@Override
+	public void setSpeed(int i, double x, double y) {
+		this.speedX[i] = (float) x;
+		this.speedY[i] = (float) y;
+	}
+
+	@Override
+	public double getPositionX(int i) {
+		return this.positionX[i];
+	}
+
+	@Override
+	public double getPositionY(int i) {
+		return this.positionY[i];
+	}
+
+	@Override
+	public void setPosition(int i, double x, double y) {
+		this.positionX[i] = (float) x;
+		this.positionY[i] = (float) y;
+	}
+}
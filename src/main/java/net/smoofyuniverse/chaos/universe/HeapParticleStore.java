@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import java.util.Arrays;
+
+// Radius, ticks, idle and type columns in heap arrays, the motion columns are stored by the subclass chosen for the precision
+abstract class HeapParticleStore extends ParticleStore {
+	private double[] radius;
+	private long[] ticks;
+	private int[] idle;
+	private int[] typeIds;
+
+	@Override
+	void allocateColumns(int capacity) {
+		this.radius = new double[capacity];
+		this.ticks = new long[capacity];
+		this.idle = new int[capacity];
+		this.typeIds = new int[capacity];
+	}
+
+	@Override
+	void resizeColumns(int capacity) {
+		this.radius = Arrays.copyOf(this.radius, capacity);
+		this.ticks = Arrays.copyOf(this.ticks, capacity);
+		this.idle = Arrays.copyOf(this.idle, capacity);
+		this.typeIds = Arrays.copyOf(this.typeIds, capacity);
+	}
+
+	@Override
+	void moveColumns(int from, int to) {
+		this.radius[to] = this.radius[from];
+		this.ticks[to] = this.ticks[from];
+		this.idle[to] = this.idle[from];
+		this.typeIds[to] = this.typeIds[from];
+	}
+
+	@Override
+	void addColumns(Particle template, int typeId, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int start, int length) {
+		int end = start + length;
+		Arrays.fill(this.radius, start, end, template.radius);
+		Arrays.fill(this.ticks, start, end, template.ticks);
+		Arrays.fill(this.idle, start, end, 0);
+		Arrays.fill(this.typeIds, start, end, typeId);
+	}
+
+	@Override
+	public double getRadius(int i) {
+		return this.radius[i];
+	}
+
+	@Override
+	public void setRadius(int i, double value) {
+		this.radius[i] = value;
+	}
+
+	@Override
+	public long getTicks(int i) {
+		return this.ticks[i];
+	}
+
+	@Override
+	public void setTicks(int i, long value) {
+		this.ticks[i] = value;
+	}
+
+	@Override
+	public int getIdle(int i) {
+		return this.idle[i];
+	}
+
+	@Override
+	public void setIdle(int i, int value) {
+		this.idle[i] = value;
+	}
+
+	@Override
+	public int getTypeId(int i) {
+		return this.typeIds[i];
+	}
+
+	@Override
+	public void setTypeId(int i, int value) {
+		this.typeIds[i] = value;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.type.Type;
+
+import java.util.Arrays;
+
+// Grids of doubling cell sizes, each type being binned at the first level whose cells cover its interaction radius
+public final class HierarchicalGrid {
+	// Types whose radius exceeds the smallest one by more than 2^(MAX_LEVELS - 1) share the last level
+	public static final int MAX_LEVELS = 16;
+
+	private final SpatialGrid[] grids = new SpatialGrid[MAX_LEVELS];
+	private final double[] radii = new double[MAX_LEVELS];
+	private final int[] rangesX = new int[MAX_LEVELS], rangesY = new int[MAX_LEVELS];
+	private int[] typeLevels = new int[0], particleLevels = new int[0], ordered = new int[0], receivers = new int[0];
+	private int levels, size, maxNeighborCells;
+
+	public HierarchicalGrid() {
+		for (int l = 0; l < MAX_LEVELS; l++)
+			this.grids[l] = new SpatialGrid();
+	}
+
+	public void build(ParticleStore particles, double sizeX, double sizeY) {
+		build(null, particles, sizeX, sizeY);
+	}
+
+	// Same as build, but the levels are updated incrementally or rebuilt over the chunks of the universe
+	void update(Universe universe, ParticleStore particles, double sizeX, double sizeY) {
+		build(universe, particles, sizeX, sizeY);
+	}
+
+	private void build(Universe universe, ParticleStore particles, double sizeX, double sizeY) {
+		if (sizeX <= 0 || sizeY <= 0)
+			throw new IllegalArgumentException("sizeX, sizeY");
+
+		TypeTable table = particles.getTypeTable();
+		int types = table.size();
+		if (this.typeLevels.length < types)
+			this.typeLevels = new int[types];
+
+		double base = Double.POSITIVE_INFINITY;
+		for (int t = 0; t < types; t++) {
+			double r = table.get(t).getInteractionRadius();
+			if (r > 0)
+				base = Math.min(base, r);
+		}
+
+		// Types that do not emit are only receivers
+		Arrays.fill(this.radii, 0);
+		int levels = 0;
+		for (int t = 0; t < types; t++) {
+			Type type = table.get(t);
+			double r = type.getInteractionRadius();
+			if (!(r > 0)) {
+				this.typeLevels[t] = -1;
+				continue;
+			}
+
+			int l = 0;
+			while (l < MAX_LEVELS - 1 && base * (1 << l) < r)
+				l++;
+			this.typeLevels[t] = l;
+			this.radii[l] = Math.max(this.radii[l], r);
+			levels = Math.max(levels, l + 1);
+		}
+		this.levels = levels;
+
+		int size = particles.size();
+		this.size = size;
+		if (this.ordered.length < size) {
+			this.particleLevels = new int[size];
+			this.ordered = new int[size];
+			this.receivers = new int[size];
+		}
+
+		// Counting sort by level, non emitting particles last
+		int[] starts = new int[levels + 2];
+		for (int i = 0; i < size; i++) {
+			int id = particles.getTypeId(i);
+			int l = id < 0 || this.typeLevels[id] == -1 ? levels : this.typeLevels[id];
+			this.particleLevels[i] = l;
+			starts[l + 1]++;
+		}
+		for (int l = 0; l <= levels; l++)
+			starts[l + 1] += starts[l];
+
+		int[] next = Arrays.copyOf(starts, levels + 1);
+		for (int i = 0; i < size; i++)
+			this.ordered[next[this.particleLevels[i]]++] = i;
+
+		// Receivers are visited cell by cell to keep neighbors close in memory
+		int maxNeighborCells = 0, n = 0;
+		for (int l = 0; l < levels; l++) {
+			SpatialGrid grid = this.grids[l];
+			if (universe == null)
+				grid.build(particles, this.ordered, starts[l], starts[l + 1] - starts[l], sizeX, sizeY, base * (1 << l));
+			else
+				grid.update(universe, particles, this.ordered, starts[l], starts[l + 1] - starts[l], sizeX, sizeY, base * (1 << l));
+
+			this.rangesX[l] = (int) Math.min(Math.ceil(this.radii[l] / grid.getCellSizeX()), grid.getCellsX());
+			this.rangesY[l] = (int) Math.min(Math.ceil(this.radii[l] / grid.getCellSizeY()), grid.getCellsY());
+			maxNeighborCells = Math.max(maxNeighborCells, Math.min(grid.getCellCount(), (2 * this.rangesX[l] + 1) * (2 * this.rangesY[l] + 1)));
+
+			for (int c = 0; c < grid.getCellCount(); c++) {
+				int end = grid.getCellEnd(c);
+				for (int slot = grid.getCellStart(c); slot < end; slot++)
+					this.receivers[n++] = grid.getParticle(slot);
+			}
+		}
+		System.arraycopy(this.ordered, starts[levels], this.receivers, n, size - n);
+		this.maxNeighborCells = maxNeighborCells;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getLevels() {
+		return this.levels;
+	}
+
+	public SpatialGrid getLevel(int level) {
+		return this.grids[level];
+	}
+
+	// Largest interaction radius of the types binned at this level
+	public double getLevelRadius(int level) {
+		return this.radii[level];
+	}
+
+	public int getMaxNeighborCells() {
+		return this.maxNeighborCells;
+	}
+
+	// All particles, emitters grouped by level and cell
+	public int getReceiver(int slot) {
+		return this.receivers[slot];
+	}
+
+	// Fills the cells of the level that may hold an emitter reaching the given position and returns their number
+	public int getNeighborCells(int level, double x, double y, int[] out) {
+		SpatialGrid grid = this.grids[level];
+		int cell = grid.cellAt(x, y);
+		return grid.getNeighborCells(cell % grid.getCellsX(), cell / grid.getCellsX(), this.rangesX[level], this.rangesY[level], out);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+public final class History {
+	private static final Logger logger = ApplicationLogger.get(History.class);
+
+	private final Deque<Entry> entries = new ArrayDeque<>();
+	private final Executor executor;
+
+	private ByteBuffer buffer;
+	private volatile boolean compressing;
+	private int interval, epoch;
+	private long memoryBudget, memoryUsage, lastAge = -1;
+
+	public History(Executor executor, int interval, long memoryBudget) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		this.executor = executor;
+		setInterval(interval);
+		setMemoryBudget(memoryBudget);
+	}
+
+	public int getInterval() {
+		return this.interval;
+	}
+
+	public void setInterval(int value) {
+		if (value <= 0)
+			throw new IllegalArgumentException();
+		this.interval = value;
+	}
+
+	public long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	public void setMemoryBudget(long value) {
+		if (value <= 0)
+			throw new IllegalArgumentException();
+		synchronized (this.entries) {
+			this.memoryBudget = value;
+			trim();
+		}
+	}
+
+	public long getMemoryUsage() {
+		synchronized (this.entries) {
+			return this.memoryUsage;
+		}
+	}
+
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+			this.memoryUsage = 0;
+			this.epoch++;
+		}
+		this.lastAge = -1;
+	}
+
+	public void record(Snapshot snapshot) {
+		if (snapshot.age < this.lastAge)
+			clear();
+
+		if (this.compressing || (this.lastAge >= 0 && snapshot.age - this.lastAge < this.interval))
+			return;
+
+		this.lastAge = snapshot.age;
+		this.compressing = true;
+
+		int epoch;
+		synchronized (this.entries) {
+			epoch = this.epoch;
+		}
+
+		this.executor.execute(() -> {
+			try {
+				Entry e = compress(snapshot);
+				synchronized (this.entries) {
+					if (this.epoch == epoch) {
+						this.entries.addLast(e);
+						this.memoryUsage += e.data.length;
+						trim();
+					}
+				}
+			} catch (Exception e) {
+				logger.error("Failed to compress universe state", e);
+			} finally {
+				this.compressing = false;
+			}
+		});
+	}
+
+	private Entry compress(Snapshot snapshot) throws IOException {
+		if (this.buffer == null)
+			this.buffer = ByteBuffer.allocateDirect(Checkpoint.BUFFER_SIZE);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+				Checkpoint.write(snapshot, Channels.newChannel(out), this.buffer);
+			}
+			return new Entry(snapshot.age, (int) deflater.getBytesRead(), bytes.toByteArray());
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void trim() {
+		while (this.memoryUsage > this.memoryBudget && !this.entries.isEmpty())
+			this.memoryUsage -= this.entries.removeFirst().data.length;
+	}
+
+	public Snapshot rewind(Universe universe) throws IOException {
+		Entry e;
+		synchronized (this.entries) {
+			long age = universe.getAge();
+			while (!this.entries.isEmpty() && this.entries.getLast().age >= age)
+				this.memoryUsage -= this.entries.removeLast().data.length;
+
+			e = this.entries.pollLast();
+			if (e == null)
+				return null;
+
+			this.memoryUsage -= e.data.length;
+			this.epoch++;
+		}
+
+		this.lastAge = e.age;
+		return decompress(universe, e);
+	}
+
+	private static Snapshot decompress(Universe universe, Entry e) throws IOException {
+		byte[] raw = new byte[e.rawSize];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(e.data);
+			int n = 0;
+			while (n < raw.length && !inflater.finished()) {
+				int r = inflater.inflate(raw, n, raw.length - n);
+				if (r == 0 && inflater.needsInput())
+					break;
+				n += r;
+			}
+			if (n != raw.length)
+				throw new IOException("Truncated universe state");
+		} catch (DataFormatException ex) {
+			throw new IOException(ex);
+		} finally {
+			inflater.end();
+		}
+
+		return Checkpoint.read(universe, ByteBuffer.wrap(raw));
+	}
+
+	private static final class Entry {
+		final long age;
+		final int rawSize;
+		final byte[] data;
+
+		Entry(long age, int rawSize, byte[] data) {
+			this.age = age;
+			this.rawSize = rawSize;
+			this.data = data;
+		}
+	}
+}
@@ -22,8 +22,6 @@
 
 package net.smoofyuniverse.chaos.universe;
 
-import net.smoofyuniverse.chaos.type.Type;
-
 public interface IParticle {
 	double getAccelerationX();
 
@@ -41,5 +39,5 @@ public interface IParticle {
 
 	long getTicks();
 
-	Type getType();
+	int getTypeId();
 }
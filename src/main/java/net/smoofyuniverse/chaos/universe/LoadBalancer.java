@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import java.util.Arrays;
+
+// Splits spatially ordered work items into contiguous chunks of similar cost, the cost of an item being measured on the previous pass
+final class LoadBalancer {
+	// Chunks are recomputed when the most expensive one costs this many times the mean
+	static final double THRESHOLD = 1.1;
+
+	private long[] costs = new long[0];
+	private int[] bounds = new int[0];
+	private int items = -1;
+	private double imbalance = 1;
+	private long rebalances;
+
+	int[] partition(int items, int chunks) {
+		if (items != this.items) {
+			// Costs measured on other items are meaningless
+			if (this.costs.length < items)
+				this.costs = new long[items];
+			else
+				Arrays.fill(this.costs, 0, items, 0);
+			this.items = items;
+			this.imbalance = 1;
+			return this.bounds = split(items, chunks);
+		}
+
+		if (this.bounds.length != chunks + 1)
+			return this.bounds = split(items, chunks);
+
+		if (this.imbalance > THRESHOLD) {
+			this.bounds = split(items, chunks);
+			this.rebalances++;
+		}
+		return this.bounds;
+	}
+
+	// Items are recorded by the chunk owning them, each by a single thread
+	void record(int item, long cost) {
+		this.costs[item] = cost;
+	}
+
+	// Called once the pass is done, evaluates the chunks with the costs just recorded
+	void update() {
+		this.imbalance = getImbalance(this.bounds);
+	}
+
+	// Ratio between the most expensive chunk of the last pass and the mean
+	double getImbalance() {
+		return this.imbalance;
+	}
+
+	long getRebalances() {
+		return this.rebalances;
+	}
+
+	private double getImbalance(int[] bounds) {
+		int chunks = bounds.length - 1;
+		long total = 0, max = 0;
+		for (int k = 0; k < chunks; k++) {
+			long sum = 0;
+			for (int i = bounds[k]; i < bounds[k + 1]; i++)
+				sum += this.costs[i] + 1;
+			total += sum;
+			max = Math.max(max, sum);
+		}
+		return total == 0 ? 1 : max * chunks / (double) total;
+	}
+
+	private int[] split(int items, int chunks) {
+		long total = 0;
+		for (int i = 0; i < items; i++)
+			total += this.costs[i] + 1;
+
+		// Every item costs at least one so that empty cells are spread as well
+		int[] bounds = new int[chunks + 1];
+		long sum = 0;
+		int k = 1;
+		for (int i = 0; i < items && k < chunks; i++) {
+			sum += this.costs[i] + 1;
+			while (k < chunks && sum * chunks >= total * k)
+				bounds[k++] = i + 1;
+		}
+		while (k <= chunks)
+			bounds[k++] = items;
+		return bounds;
+	}
+}
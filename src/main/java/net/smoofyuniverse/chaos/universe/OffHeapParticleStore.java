@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.smoofyuniverse.chaos.universe;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// Every column in direct buffers, split in pages of PAGE_SIZE particles so that the capacity is only bound by the int index of a particle
+// Growing adds pages and never copies nor drops the previous ones, the pages live as long as the store
+// A page column is laid out as in the checkpoint particle section so that it can be written as is
+final class OffHeapParticleStore extends ParticleStore {
+	static final int PAGE_SHIFT = 16, PAGE_SIZE = 1 << PAGE_SHIFT, PAGE_MASK = PAGE_SIZE - 1;
+
+	// Force, then the columns of the checkpoint particle section in order
+	private static final int[] WIDTHS = {8, 8, 8, 8, 8, 8, 8, 8, 8, 8, 4, 4};
+	private static final int FIRST_SECTION_COLUMN = 2;
+
+	// Mapped windows of the checkpoint file are at most this large
+	private static final long MAX_WINDOW = 1 << 30;
+
+	private ByteBuffer[][] pages = {};
+	private DoubleBuffer[] forceX = {}, forceY = {};
+	private DoubleBuffer[] accelerationX = {}, accelerationY = {};
+	private DoubleBuffer[] speedX = {}, speedY = {};
+	private DoubleBuffer[] positionX = {}, positionY = {};
+	private DoubleBuffer[] radius = {};
+	private LongBuffer[] ticks = {};
+	private IntBuffer[] typeIds = {}, idle = {};
+
+	@Override
+	public Precision getPrecision() {
+		return Precision.DOUBLE;
+	}
+
+	@Override
+	public Storage getStorage() {
+		return Storage.OFF_HEAP;
+	}
+
+	@Override
+	void allocateColumns(int capacity) {
+		resizeColumns(capacity);
+	}
+
+	@Override
+	void resizeColumns(int capacity) {
+		int count = pageCount(capacity);
+		int previous = this.pages.length;
+		if (count <= previous)
+			return;
+
+		ByteBuffer[][] pages = Arrays.copyOf(this.pages, count);
+		for (int p = previous; p < count; p++) {
+			ByteBuffer[] columns = new ByteBuffer[WIDTHS.length];
+			for (int c = 0; c < columns.length; c++)
+				columns[c] = ByteBuffer.allocateDirect(PAGE_SIZE * WIDTHS[c]).order(ByteOrder.LITTLE_ENDIAN);
+			pages[p] = columns;
+		}
+		this.pages = pages;
+
+		this.forceX = Arrays.copyOf(this.forceX, count);
+		this.forceY = Arrays.copyOf(this.forceY, count);
+		this.accelerationX = Arrays.copyOf(this.accelerationX, count);
+		this.accelerationY = Arrays.copyOf(this.accelerationY, count);
+		this.speedX = Arrays.copyOf(this.speedX, count);
+		this.speedY = Arrays.copyOf(this.speedY, count);
+		this.positionX = Arrays.copyOf(this.positionX, count);
+		this.positionY = Arrays.copyOf(this.positionY, count);
+		this.radius = Arrays.copyOf(this.radius, count);
+		this.ticks = Arrays.copyOf(this.ticks, count);
+		this.typeIds = Arrays.copyOf(this.typeIds, count);
+		this.idle = Arrays.copyOf(this.idle, count);
+
+		for (int p = previous; p < count; p++) {
+			ByteBuffer[] columns = pages[p];
+			this.forceX[p] = columns[0].asDoubleBuffer();
+			this.forceY[p] = columns[1].asDoubleBuffer();
+			this.accelerationX[p] = columns[2].asDoubleBuffer();
+			this.accelerationY[p] = columns[3].asDoubleBuffer();
+			this.speedX[p] = columns[4].asDoubleBuffer();
+			this.speedY[p] = columns[5].asDoubleBuffer();
+			this.positionX[p] = columns[6].asDoubleBuffer();
+			this.positionY[p] = columns[7].asDoubleBuffer();
+			this.radius[p] = columns[8].asDoubleBuffer();
+			this.ticks[p] = columns[9].asLongBuffer();
+			this.typeIds[p] = columns[10].asIntBuffer();
+			this.idle[p] = columns[11].asIntBuffer();
+		}
+	}
+
+	private static int pageCount(int capacity) {
+		return (int) (((long) capacity + PAGE_MASK) >>> PAGE_SHIFT);
+	}
+
+	@Override
+	void moveColumns(int from, int to) {
+		ByteBuffer[] source = this.pages[from >>> PAGE_SHIFT], target = this.pages[to >>> PAGE_SHIFT];
+		int i = from & PAGE_MASK, j = to & PAGE_MASK;
+		for (int c = 0; c < WIDTHS.length; c++) {
+			if (WIDTHS[c] == Long.BYTES)
+				target[c].putLong(j * Long.BYTES, source[c].getLong(i * Long.BYTES));
+			else
+				target[c].putInt(j * Integer.BYTES, source[c].getInt(i * Integer.BYTES));
+		}
+	}
+
+	@Override
+	void addColumns(Particle template, int typeId, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int start, int length) {
+		for (int k = 0; k < length; k++) {
+			int i = start + k, p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+			this.forceX[p].put(j, 0);
+			this.forceY[p].put(j, 0);
+			this.accelerationX[p].put(j, template.accelerationX);
+			this.accelerationY[p].put(j, template.accelerationY);
+			this.speedX[p].put(j, speedX[offset + k]);
+			this.speedY[p].put(j, speedY[offset + k]);
+			this.positionX[p].put(j, positionX[offset + k]);
+			this.positionY[p].put(j, positionY[offset + k]);
+			this.radius[p].put(j, template.radius);
+			this.ticks[p].put(j, template.ticks);
+			this.typeIds[p].put(j, typeId);
+			this.idle[p].put(j, 0);
+		}
+	}
+
+	// A file channel gets the columns mapped into it and copied page by page, it must be open for reading and writing
+	@Override
+	void writeParticles(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		Checkpoint.flush(buffer, channel);
+
+		int size = size();
+		if (channel instanceof FileChannel) {
+			FileChannel file = (FileChannel) channel;
+			long position = file.position();
+			for (int c = FIRST_SECTION_COLUMN; c < WIDTHS.length; c++) {
+				int width = WIDTHS[c];
+				long length = (long) size * width;
+				long window = MAX_WINDOW / ((long) PAGE_SIZE * width) * PAGE_SIZE * width;
+				for (long start = 0; start < length; start += window) {
+					MappedByteBuffer map = file.map(MapMode.READ_WRITE, position + start, Math.min(window, length - start));
+					while (map.hasRemaining())
+						map.put(pageColumn(c, (int) ((start + map.position()) / width), map.remaining() / width));
+				}
+				position += length;
+			}
+			file.position(position);
+		} else {
+			for (int c = FIRST_SECTION_COLUMN; c < WIDTHS.length; c++) {
+				for (int i = 0; i < size; i += PAGE_SIZE) {
+					ByteBuffer column = pageColumn(c, i, size - i);
+					while (column.hasRemaining())
+						channel.write(column);
+				}
+			}
+		}
+	}
+
+	// The bytes of column c from particle i to the end of its page, at most count particles
+	private ByteBuffer pageColumn(int c, int i, int count) {
+		int j = i & PAGE_MASK, width = WIDTHS[c];
+		return this.pages[i >>> PAGE_SHIFT][c].duplicate()
+				.limit((j + Math.min(count, PAGE_SIZE - j)) * width)
+				.position(j * width);
+	}
+
+	@Override
+	public double getForceX(int i) {
+		return this.forceX[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public double getForceY(int i) {
+		return this.forceY[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void addForce(int i, double x, double y) {
+		int p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+		this.forceX[p].put(j, this.forceX[p].get(j) + x);
+		this.forceY[p].put(j, this.forceY[p].get(j) + y);
+	}
+
+	@Override
+	public void setForce(int i, double x, double y) {
+		int p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+		this.forceX[p].put(j, x);
+		this.forceY[p].put(j, y);
+	}
+
+	@Override
+	public double getAccelerationX(int i) {
+		return this.accelerationX[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public double getAccelerationY(int i) {
+		return this.accelerationY[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setAcceleration(int i, double x, double y) {
+		int p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+		this.accelerationX[p].put(j, x);
+		this.accelerationY[p].put(j, y);
+	}
+
+	@Override
+	public double getSpeedX(int i) {
+		return this.speedX[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public double getSpeedY(int i) {
+		return this.speedY[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setSpeed(int i, double x, double y) {
+		int p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+		this.speedX[p].put(j, x);
+		this.speedY[p].put(j, y);
+	}
+
+	@Override
+	public double getPositionX(int i) {
+		return this.positionX[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public double getPositionY(int i) {
+		return this.positionY[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setPosition(int i, double x, double y) {
+		int p = i >>> PAGE_SHIFT, j = i & PAGE_MASK;
+		this.positionX[p].put(j, x);
+		this.positionY[p].put(j, y);
+	}
+
+	@Override
+	public double getRadius(int i) {
+		return this.radius[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setRadius(int i, double value) {
+		this.radius[i >>> PAGE_SHIFT].put(i & PAGE_MASK, value);
+	}
+
+	@Override
+	public long getTicks(int i) {
+		return this.ticks[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setTicks(int i, long value) {
+		this.ticks[i >>> PAGE_SHIFT].put(i & PAGE_MASK, value);
+	}
+
+	@Override
+	public int getIdle(int i) {
+		return this.idle[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setIdle(int i, int value) {
+		this.idle[i >>> PAGE_SHIFT].put(i & PAGE_MASK, value);
+	}
+
+	@Override
+	public int getTypeId(int i) {
+		return this.typeIds[i >>> PAGE_SHIFT].get(i & PAGE_MASK);
+	}
+
+	@Override
+	public void setTypeId(int i, int value) {
+		this.typeIds[i >>> PAGE_SHIFT].put(i & PAGE_MASK, value);
+	}
+}
@@ -22,8 +22,6 @@
 
 package net.smoofyuniverse.chaos.universe;
 
-import net.smoofyuniverse.chaos.type.Type;
-
 public final class Particle implements IParticle {
 	public double forceX, forceY;
 	public double accelerationX, accelerationY;
@@ -31,7 +29,8 @@ public final class Particle implements IParticle {
 	public double positionX, positionY;
 	public double radius;
 	public long ticks;
-	public Type type;
+	public int idle;
+	public int typeId = -1;
 
 	public Particle copy() {
 		Particle p = new Particle();
@@ -43,7 +42,8 @@ public final class Particle implements IParticle {
 		p.positionY = this.positionY;
 		p.radius = this.radius;
 		p.ticks = this.ticks;
-		p.type = this.type;
+		p.idle = this.idle;
+		p.typeId = this.typeId;
 		return p;
 	}
 
@@ -88,7 +88,7 @@ public final class Particle implements IParticle {
 	}
 
 	@Override
-	public Type getType() {
-		return this.type;
+	public int getTypeId() {
+		return this.typeId;
 	}
 }
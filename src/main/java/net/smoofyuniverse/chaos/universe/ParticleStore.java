@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.type.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Structure of arrays, the columns are stored by the subclass chosen for the precision and the storage
+public abstract class ParticleStore {
+	private int size, capacity;
+	private final TypeTable table = new TypeTable();
+
+	ParticleStore() {}
+
+	public static ParticleStore create(Precision precision, Storage storage, int capacity) {
+		if (precision == null)
+			throw new IllegalArgumentException("precision");
+		if (storage == null)
+			throw new IllegalArgumentException("storage");
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity");
+
+		ParticleStore store;
+		if (storage == Storage.OFF_HEAP) {
+			if (precision != Precision.DOUBLE)
+				throw new IllegalArgumentException("precision, storage");
+			store = new OffHeapParticleStore();
+		} else {
+			store = precision == Precision.FLOAT ? new FloatParticleStore() : new DoubleParticleStore();
+		}
+		store.allocateColumns(capacity);
+		store.capacity = capacity;
+		return store;
+	}
+
+	public abstract Precision getPrecision();
+
+	public Storage getStorage() {
+		return Storage.HEAP;
+	}
+
+	abstract void allocateColumns(int capacity);
+
+	abstract void resizeColumns(int capacity);
+
+	abstract void moveColumns(int from, int to);
+
+	abstract void addColumns(Particle template, int typeId, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int start, int length);
+
+	// Every column of the checkpoint particle section
+	void writeParticles(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		int size = this.size;
+		Checkpoint.writeColumn(this::getAccelerationX, size, channel, buffer);
+		Checkpoint.writeColumn(this::getAccelerationY, size, channel, buffer);
+		Checkpoint.writeColumn(this::getSpeedX, size, channel, buffer);
+		Checkpoint.writeColumn(this::getSpeedY, size, channel, buffer);
+		Checkpoint.writeColumn(this::getPositionX, size, channel, buffer);
+		Checkpoint.writeColumn(this::getPositionY, size, channel, buffer);
+		Checkpoint.writeColumn(this::getRadius, size, channel, buffer);
+		Checkpoint.writeLongColumn(this::getTicks, size, channel, buffer);
+		Checkpoint.writeIntColumn(this::getTypeId, size, channel, buffer);
+		Checkpoint.writeIntColumn(this::getIdle, size, channel, buffer);
+		Checkpoint.flush(buffer, channel);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public TypeTable getTypeTable() {
+		return this.table;
+	}
+
+	public void reserve(int capacity) {
+		if (capacity <= this.capacity)
+			return;
+
+		resizeColumns(capacity);
+		this.capacity = capacity;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalStateException("Too many particles");
+		if (capacity > this.capacity)
+			reserve(Math.max(capacity, this.capacity + (this.capacity >> 1)));
+	}
+
+	int grow(int count) {
+		int start = this.size;
+		ensureCapacity(start + count);
+		this.size = start + count;
+		return start;
+	}
+
+	public int add(Particle p) {
+		int i = grow(1);
+		set(i, p);
+		return i;
+	}
+
+	void addAll(Type type, Particle template, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int length) {
+		int id = this.table.register(type);
+		int start = grow(length);
+		addColumns(template, id, positionX, positionY, speedX, speedY, offset, start, length);
+	}
+
+	public void set(int i, Particle p) {
+		setForce(i, p.forceX, p.forceY);
+		setAcceleration(i, p.accelerationX, p.accelerationY);
+		setSpeed(i, p.speedX, p.speedY);
+		setPosition(i, p.positionX, p.positionY);
+		setRadius(i, p.radius);
+		setTicks(i, p.ticks);
+		setIdle(i, p.idle);
+		setTypeId(i, p.typeId);
+	}
+
+	public Particle get(int i) {
+		Particle p = new Particle();
+		p.accelerationX = getAccelerationX(i);
+		p.accelerationY = getAccelerationY(i);
+		p.speedX = getSpeedX(i);
+		p.speedY = getSpeedY(i);
+		p.positionX = getPositionX(i);
+		p.positionY = getPositionY(i);
+		p.radius = getRadius(i);
+		p.ticks = getTicks(i);
+		p.idle = getIdle(i);
+		p.typeId = getTypeId(i);
+		return p;
+	}
+
+	void move(int from, int to) {
+		moveColumns(from, to);
+	}
+
+	void truncate(int size) {
+		this.size = size;
+	}
+
+	public abstract double getForceX(int i);
+
+	public abstract double getForceY(int i);
+
+	public abstract void addForce(int i, double x, double y);
+
+	public abstract void setForce(int i, double x, double y);
+
+	public abstract double getAccelerationX(int i);
+
+	public abstract double getAccelerationY(int i);
+
+	public abstract void setAcceleration(int i, double x, double y);
+
+	public abstract double getSpeedX(int i);
+
+	public abstract double getSpeedY(int i);
+
+	public abstract void setSpeed(int i, double x, double y);
+
+	public abstract double getPositionX(int i);
+
+	public abstract double getPositionY(int i);
+
+	public abstract void setPosition(int i, double x, double y);
+
+	public abstract double getRadius(int i);
+
+	public abstract void setRadius(int i, double value);
+
+	public abstract long getTicks(int i);
+
+	public abstract void setTicks(int i, long value);
+
+	// Number of consecutive quiet ticks, see Universe.setSleepTolerance
+	public abstract int getIdle(int i);
+
+	public abstract void setIdle(int i, int value);
+
+	public Type getType(int i) {
+		return this.table.get(getTypeId(i));
+	}
+
+	public void setType(int i, Type value) {
+		setTypeId(i, value == null ? -1 : this.table.register(value));
+	}
+
+	// Dense id in the type table, -1 for a dead particle
+	public abstract int getTypeId(int i);
+
+	public abstract void setTypeId(int i, int value);
+}
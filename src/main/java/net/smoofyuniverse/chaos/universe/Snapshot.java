@@ -23,21 +23,111 @@
 package net.smoofyuniverse.chaos.universe;
 
 import javafx.scene.canvas.GraphicsContext;
+import net.smoofyuniverse.chaos.type.Type;
 
 public final class Snapshot {
 	public final double sizeX, sizeY;
+	public final long age;
+	public final Type[] types;
 	public final Particle[] particles;
+	public final Statistics statistics;
+	public final Clusters clusters;
 
-	public Snapshot(double sizeX, double sizeY, Particle[] particles) {
+	public Snapshot(double sizeX, double sizeY, long age, Type[] types, Particle[] particles, Statistics statistics) {
+		this(sizeX, sizeY, age, types, particles, statistics, Clusters.EMPTY);
+	}
+
+	// Particle type ids index the types array
+	public Snapshot(double sizeX, double sizeY, long age, Type[] types, Particle[] particles, Statistics statistics, Clusters clusters) {
 		this.sizeX = sizeX;
 		this.sizeY = sizeY;
+		this.age = age;
+		this.types = types;
 		this.particles = particles;
+		this.statistics = statistics;
+		this.clusters = clusters;
 	}
 
 	public void render(GraphicsContext g) {
-		for (Particle p : particles)
-			p.type.draw1(g, p);
-		for (Particle p : particles)
-			p.type.draw2(g, p);
+		for (Particle p : this.particles)
+			this.types[p.typeId].draw1(g, p);
+		for (Particle p : this.particles)
+			this.types[p.typeId].draw2(g, p);
+	}
+
+	// Draws positions interpolated from the previous snapshot, alpha being 0 at the previous one and 1 at this one
+	public void render(GraphicsContext g, Snapshot previous, double alpha) {
+		if (alpha >= 1 || !canInterpolate(previous)) {
+			render(g);
+			return;
+		}
+
+		int n = this.particles.length;
+		double[] x = new double[n], y = new double[n];
+		interpolate(previous, Math.max(alpha, 0), x, y);
+
+		Particle tmp = new Particle();
+		for (int i = 0; i < n; i++) {
+			Particle p = view(this.particles[i], x[i], y[i], tmp);
+			this.types[p.typeId].draw1(g, p);
+		}
+		for (int i = 0; i < n; i++) {
+			Particle p = view(this.particles[i], x[i], y[i], tmp);
+			this.types[p.typeId].draw2(g, p);
+		}
+	}
+
+	public boolean canInterpolate(Snapshot previous) {
+		return previous != null && previous.age < this.age && previous.sizeX == this.sizeX && previous.sizeY == this.sizeY
+				&& previous.particles.length == this.particles.length;
+	}
+
+	public void interpolate(Snapshot previous, double alpha, double[] x, double[] y) {
+		double halfX = this.sizeX / 2d, halfY = this.sizeY / 2d;
+		for (int i = 0; i < this.particles.length; i++) {
+			Particle a = previous.particles[i], b = this.particles[i];
+			if (previous.types[a.typeId] != this.types[b.typeId]) {
+				x[i] = b.positionX;
+				y[i] = b.positionY;
+				continue;
+			}
+
+			// Shortest path across the torus
+			double dx = b.positionX - a.positionX, dy = b.positionY - a.positionY;
+			if (dx > halfX)
+				dx -= this.sizeX;
+			else if (dx < -halfX)
+				dx += this.sizeX;
+			if (dy > halfY)
+				dy -= this.sizeY;
+			else if (dy < -halfY)
+				dy += this.sizeY;
+
+			double px = a.positionX + dx * alpha, py = a.positionY + dy * alpha;
+			if (px < 0)
+				px += this.sizeX;
+			else if (px >= this.sizeX)
+				px -= this.sizeX;
+			if (py < 0)
+				py += this.sizeY;
+			else if (py >= this.sizeY)
+				py -= this.sizeY;
+
+			x[i] = px;
+			y[i] = py;
+		}
+	}
+
+	private static Particle view(Particle src, double x, double y, Particle dst) {
+		dst.accelerationX = src.accelerationX;
+		dst.accelerationY = src.accelerationY;
+		dst.speedX = src.speedX;
+		dst.speedY = src.speedY;
+		dst.positionX = x;
+		dst.positionY = y;
+		dst.radius = src.radius;
+		dst.ticks = src.ticks;
+		dst.typeId = src.typeId;
+		return dst;
 	}
 }
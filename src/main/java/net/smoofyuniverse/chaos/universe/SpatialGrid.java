@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import java.util.Arrays;
+
+// Uniform grid over the torus, cells hold a few spare slots so that particles can move between cells without a rebuild
+public final class SpatialGrid {
+	// Above this fraction of particles changing cell, a full rebuild is cheaper than moving them one by one
+	public static final double MAX_MOVED_RATIO = 0.1;
+	// Bound on the per-chunk histograms of a parallel rebuild
+	static final int HISTOGRAM_LIMIT = 1 << 21;
+
+	private int[] cellStart = new int[1], cellCounts = new int[0], cellParticles = new int[0];
+	private int[] particleCells = new int[0], particleSlots = new int[0], nextCells = new int[0];
+	private int[][] histograms = new int[0][];
+	// Copy of the binned subset, null when the whole store was binned
+	private int[] members;
+	private int cellsX, cellsY, size, particles;
+	private double sizeX, sizeY, minCellSize, cellSizeX, cellSizeY, maxRadius;
+	private boolean incremental;
+	private int moved;
+
+	public void build(ParticleStore particles, double sizeX, double sizeY, double minCellSize) {
+		build(particles, null, 0, particles.size(), sizeX, sizeY, minCellSize);
+	}
+
+	// Bins only the particles listed in the subset, or all of them when it is null
+	public void build(ParticleStore particles, int[] subset, int offset, int count, double sizeX, double sizeY, double minCellSize) {
+		rebuild(null, particles, subset, offset, count, sizeX, sizeY, minCellSize, false);
+	}
+
+	// Moves the particles that changed cell when they are few enough, rebuilds the grid over the chunks of the universe otherwise
+	void update(Universe universe, ParticleStore particles, int[] subset, int offset, int count, double sizeX, double sizeY, double minCellSize) {
+		if (this.cellCounts.length == 0 || count != this.size || particles.size() != this.particles || sizeX != this.sizeX || sizeY != this.sizeY || minCellSize != this.minCellSize
+				|| !sameMembers(subset, offset, count)) {
+			rebuild(universe, particles, subset, offset, count, sizeX, sizeY, minCellSize, false);
+			return;
+		}
+
+		int[] next = this.nextCells;
+		int[] moved = new int[universe.getChunks()];
+		double[] radii = new double[universe.getChunks()];
+		universe.forEachChunk((chunk, start, end) -> {
+			int n = 0;
+			double maxRadius = 0;
+			for (int k = start; k < end; k++) {
+				int i = subset == null ? k : subset[offset + k];
+				int c = cellAt(particles.getPositionX(i), particles.getPositionY(i));
+				next[i] = c;
+				if (c != this.particleCells[i])
+					n++;
+				maxRadius = Math.max(maxRadius, particles.getRadius(i));
+			}
+			moved[chunk] = n;
+			radii[chunk] = maxRadius;
+		}, count);
+
+		int total = 0;
+		double maxRadius = 0;
+		for (int chunk = 0; chunk < moved.length; chunk++) {
+			total += moved[chunk];
+			maxRadius = Math.max(maxRadius, radii[chunk]);
+		}
+		this.maxRadius = maxRadius;
+		this.moved = total;
+
+		if (total > count * MAX_MOVED_RATIO || !move(subset, offset, count)) {
+			// The cells are already computed
+			this.nextCells = this.particleCells;
+			this.particleCells = next;
+			rebuild(universe, particles, subset, offset, count, sizeX, sizeY, minCellSize, true);
+			return;
+		}
+		this.incremental = true;
+	}
+
+	// The cells of the particles that joined the subset are unknown, even when the count did not change
+	// Over the whole store, the indices are binned whatever particle they hold
+	private boolean sameMembers(int[] subset, int offset, int count) {
+		if (subset == null)
+			return this.members == null;
+		return this.members != null && Arrays.equals(this.members, 0, count, subset, offset, offset + count);
+	}
+
+	private boolean move(int[] subset, int offset, int count) {
+		int[] next = this.nextCells;
+
+		// Removals first so that the freed slots can take the arrivals
+		for (int k = 0; k < count; k++) {
+			int i = subset == null ? k : subset[offset + k];
+			int from = this.particleCells[i];
+			if (from == next[i])
+				continue;
+
+			int slot = this.particleSlots[i], last = this.cellStart[from] + --this.cellCounts[from];
+			int other = this.cellParticles[last];
+			this.cellParticles[slot] = other;
+			this.particleSlots[other] = slot;
+		}
+
+		for (int k = 0; k < count; k++) {
+			int i = subset == null ? k : subset[offset + k];
+			int to = next[i];
+			if (this.particleCells[i] == to)
+				continue;
+
+			int slot;
+			if (this.cellCounts[to] < this.cellStart[to + 1] - this.cellStart[to]) {
+				slot = this.cellStart[to] + this.cellCounts[to];
+			} else if (to + 1 < this.cellCounts.length && this.cellCounts[to + 1] < this.cellStart[to + 2] - this.cellStart[to + 1]) {
+				// Takes the first slot of the next cell, whose first particle moves to its end
+				slot = this.cellStart[to + 1];
+				int n = this.cellCounts[to + 1];
+				if (n != 0) {
+					int other = this.cellParticles[slot];
+					this.cellParticles[slot + n] = other;
+					this.particleSlots[other] = slot + n;
+				}
+				this.cellStart[to + 1]++;
+			} else if (to > 0 && this.cellCounts[to - 1] < this.cellStart[to] - this.cellStart[to - 1]) {
+				// Takes the last slot of the previous cell
+				slot = --this.cellStart[to];
+			} else {
+				return false;
+			}
+
+			this.cellParticles[slot] = i;
+			this.particleSlots[i] = slot;
+			this.particleCells[i] = to;
+			this.cellCounts[to]++;
+		}
+		return true;
+	}
+
+	// Sparse cells see the largest relative fluctuations, hence the constant term
+	private static int capacity(int count) {
+		return count + (count >> 2) + 2;
+	}
+
+	// Counting sort by cell, the histograms of the parts are summed in order so that the layout does not depend on the number of parts
+	private void rebuild(Universe universe, ParticleStore particles, int[] subset, int offset, int count, double sizeX, double sizeY, double minCellSize, boolean cellsKnown) {
+		if (sizeX <= 0 || sizeY <= 0)
+			throw new IllegalArgumentException("sizeX, sizeY");
+		if (!(minCellSize > 0))
+			throw new IllegalArgumentException("minCellSize");
+
+		int cellsX = Math.max(1, Math.min((int) (sizeX / minCellSize), 4096));
+		int cellsY = Math.max(1, Math.min((int) (sizeY / minCellSize), 4096));
+		if (cellsKnown && (cellsX != this.cellsX || cellsY != this.cellsY))
+			cellsKnown = false;
+
+		this.cellsX = cellsX;
+		this.cellsY = cellsY;
+		this.cellSizeX = sizeX / cellsX;
+		this.cellSizeY = sizeY / cellsY;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.minCellSize = minCellSize;
+		this.size = count;
+		this.particles = particles.size();
+		this.incremental = false;
+		if (subset == null) {
+			this.members = null;
+		} else {
+			if (this.members == null || this.members.length < count)
+				this.members = new int[count];
+			System.arraycopy(subset, offset, this.members, 0, count);
+		}
+		if (!cellsKnown)
+			this.moved = count;
+
+		int cells = cellsX * cellsY;
+		if (this.cellStart.length != cells + 1) {
+			this.cellStart = new int[cells + 1];
+			this.cellCounts = new int[cells];
+		}
+		if (this.particleCells.length < this.particles) {
+			this.particleCells = new int[this.particles];
+			this.particleSlots = new int[this.particles];
+			this.nextCells = new int[this.particles];
+		}
+
+		int parts = universe == null || count < 4096 ? 1 : Math.max(1, Math.min(universe.getChunks(), HISTOGRAM_LIMIT / cells));
+		if (this.histograms.length != parts || this.histograms[0].length != cells) {
+			this.histograms = new int[parts][];
+			for (int p = 0; p < parts; p++)
+				this.histograms[p] = new int[cells];
+		}
+
+		int[] bounds = new int[parts + 1];
+		for (int p = 0; p <= parts; p++)
+			bounds[p] = (int) ((long) count * p / parts);
+
+		double[] radii = new double[parts];
+		boolean known = cellsKnown;
+		run(universe, (part, start, end) -> {
+			int[] histogram = this.histograms[part];
+			Arrays.fill(histogram, 0);
+			double maxRadius = 0;
+			for (int k = start; k < end; k++) {
+				int i = subset == null ? k : subset[offset + k];
+				int c = known ? this.particleCells[i] : cellAt(particles.getPositionX(i), particles.getPositionY(i));
+				this.particleCells[i] = c;
+				histogram[c]++;
+				maxRadius = Math.max(maxRadius, particles.getRadius(i));
+			}
+			radii[part] = maxRadius;
+		}, bounds);
+
+		if (!cellsKnown) {
+			double maxRadius = 0;
+			for (double r : radii)
+				maxRadius = Math.max(maxRadius, r);
+			this.maxRadius = maxRadius;
+		}
+
+		// Prefix sum, each histogram entry becomes the first slot of its part in the cell
+		int slots = 0;
+		for (int c = 0; c < cells; c++) {
+			this.cellStart[c] = slots;
+			int n = 0;
+			for (int p = 0; p < parts; p++) {
+				int h = this.histograms[p][c];
+				this.histograms[p][c] = slots + n;
+				n += h;
+			}
+			this.cellCounts[c] = n;
+			slots += capacity(n);
+		}
+		this.cellStart[cells] = slots;
+
+		if (this.cellParticles.length < slots)
+			this.cellParticles = new int[slots + (slots >> 2)];
+
+		run(universe, (part, start, end) -> {
+			int[] next = this.histograms[part];
+			for (int k = start; k < end; k++) {
+				int i = subset == null ? k : subset[offset + k];
+				int slot = next[this.particleCells[i]]++;
+				this.cellParticles[slot] = i;
+				this.particleSlots[i] = slot;
+			}
+		}, bounds);
+	}
+
+	private static void run(Universe universe, Universe.ChunkConsumer consumer, int[] bounds) {
+		if (bounds.length == 2)
+			consumer.accept(0, bounds[0], bounds[1]);
+		else
+			universe.forEachRange(consumer, bounds);
+	}
+
+	// Whether the last update moved particles instead of rebuilding
+	public boolean isIncremental() {
+		return this.incremental;
+	}
+
+	// Particles that changed cell during the last update
+	public int getMoved() {
+		return this.moved;
+	}
+
+	public int cellAt(double x, double y) {
+		int cx = (int) (x / this.cellSizeX), cy = (int) (y / this.cellSizeY);
+		if (cx < 0)
+			cx = 0;
+		else if (cx >= this.cellsX)
+			cx = this.cellsX - 1;
+		if (cy < 0)
+			cy = 0;
+		else if (cy >= this.cellsY)
+			cy = this.cellsY - 1;
+		return cy * this.cellsX + cx;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getCellsX() {
+		return this.cellsX;
+	}
+
+	public int getCellsY() {
+		return this.cellsY;
+	}
+
+	public int getCellCount() {
+		return this.cellsX * this.cellsY;
+	}
+
+	public double getCellSizeX() {
+		return this.cellSizeX;
+	}
+
+	public double getCellSizeY() {
+		return this.cellSizeY;
+	}
+
+	public double getMaxRadius() {
+		return this.maxRadius;
+	}
+
+	public int getCell(int particle) {
+		return this.particleCells[particle];
+	}
+
+	public int getCellStart(int cell) {
+		return this.cellStart[cell];
+	}
+
+	public int getCellEnd(int cell) {
+		return this.cellStart[cell] + this.cellCounts[cell];
+	}
+
+	public int getParticle(int slot) {
+		return this.cellParticles[slot];
+	}
+
+	// Fills the distinct cells around the given cell, wrapping at the edges, and returns their number
+	public int getNeighborCells(int cell, int[] out) {
+		return getNeighborCells(cell % this.cellsX, cell / this.cellsX, 1, 1, out);
+	}
+
+	public int getNeighborCells(int cx, int cy, int rangeX, int rangeY, int[] out) {
+		int minX = cx - rangeX, maxX = cx + rangeX, minY = cy - rangeY, maxY = cy + rangeY;
+		if (maxX - minX + 1 >= this.cellsX) {
+			minX = 0;
+			maxX = this.cellsX - 1;
+		}
+		if (maxY - minY + 1 >= this.cellsY) {
+			minY = 0;
+			maxY = this.cellsY - 1;
+		}
+
+		int n = 0;
+		for (int y = minY; y <= maxY; y++) {
+			int row = Math.floorMod(y, this.cellsY) * this.cellsX;
+			for (int x = minX; x <= maxX; x++)
+				out[n++] = row + Math.floorMod(x, this.cellsX);
+		}
+		return n;
+	}
+}
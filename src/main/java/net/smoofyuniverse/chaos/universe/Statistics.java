@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.type.Type;
+
+import java.util.Arrays;
+
+public final class Statistics {
+	public static final int DISTRIBUTION_CELLS = 16;
+	public static final Statistics EMPTY = new Statistics(0, 0, 0, 0, 0, 0, 0, 0, new Type[0], new int[0]);
+
+	public final long age;
+	public final int particles, sleeping;
+	public final double kineticEnergy, momentumX, momentumY, meanSpeed, dispersion;
+	private final Type[] types;
+	private final int[] counts;
+
+	private Statistics(long age, int particles, int sleeping, double kineticEnergy, double momentumX, double momentumY, double meanSpeed, double dispersion, Type[] types, int[] counts) {
+		this.age = age;
+		this.particles = particles;
+		this.sleeping = sleeping;
+		this.kineticEnergy = kineticEnergy;
+		this.momentumX = momentumX;
+		this.momentumY = momentumY;
+		this.meanSpeed = meanSpeed;
+		this.dispersion = dispersion;
+		this.types = types;
+		this.counts = counts;
+	}
+
+	public double getTemperature() {
+		return this.particles == 0 ? 0 : this.kineticEnergy * 100 / this.particles;
+	}
+
+	public int getTypeCount() {
+		return this.types.length;
+	}
+
+	public Type getType(int i) {
+		return this.types[i];
+	}
+
+	public int getCount(int i) {
+		return this.counts[i];
+	}
+
+	public int getCount(Type type) {
+		for (int i = 0; i < this.types.length; i++) {
+			if (this.types[i] == type)
+				return this.counts[i];
+		}
+		return 0;
+	}
+
+	static Statistics merge(long age, Accumulator[] accumulators, int count) {
+		Accumulator total = new Accumulator();
+		int cells = DISTRIBUTION_CELLS * DISTRIBUTION_CELLS;
+
+		// Fixed merge order, the result does not depend on scheduling
+		for (int k = 0; k < count; k++) {
+			Accumulator a = accumulators[k];
+			total.particles += a.particles;
+			total.sleeping += a.sleeping;
+			total.energy += a.energy;
+			total.momentumX += a.momentumX;
+			total.momentumY += a.momentumY;
+			total.speed += a.speed;
+			for (int c = 0; c < cells; c++)
+				total.histogram[c] += a.histogram[c];
+			for (int i = 0; i < a.typeCount; i++)
+				total.count(a.types[i], a.counts[i]);
+		}
+
+		int n = total.particles;
+		if (n == 0)
+			return new Statistics(age, 0, 0, 0, 0, 0, 0, 0, new Type[0], new int[0]);
+
+		double mean = n / (double) cells, variance = 0;
+		for (int c = 0; c < cells; c++) {
+			double d = total.histogram[c] - mean;
+			variance += d * d;
+		}
+
+		return new Statistics(age, n, total.sleeping, total.energy / 2, total.momentumX, total.momentumY, total.speed / n, variance / cells / mean,
+				Arrays.copyOf(total.types, total.typeCount), Arrays.copyOf(total.counts, total.typeCount));
+	}
+
+	static final class Accumulator {
+		final int[] histogram = new int[DISTRIBUTION_CELLS * DISTRIBUTION_CELLS];
+		int particles, sleeping;
+		double energy, momentumX, momentumY, speed;
+		Type[] types = new Type[8];
+		int[] counts = new int[8];
+		int typeCount, last;
+
+		void reset() {
+			Arrays.fill(this.histogram, 0);
+			this.particles = 0;
+			this.sleeping = 0;
+			this.energy = 0;
+			this.momentumX = 0;
+			this.momentumY = 0;
+			this.speed = 0;
+			Arrays.fill(this.types, 0, this.typeCount, null);
+			this.typeCount = 0;
+			this.last = 0;
+		}
+
+		void add(Type type, double x, double y, double sizeX, double sizeY, double speedX, double speedY) {
+			double v2 = speedX * speedX + speedY * speedY;
+			this.particles++;
+			this.energy += v2;
+			this.momentumX += speedX;
+			this.momentumY += speedY;
+			this.speed += Math.sqrt(v2);
+			this.histogram[cell(x, sizeX) * DISTRIBUTION_CELLS + cell(y, sizeY)]++;
+			count(type, 1);
+		}
+
+		private void count(Type type, int count) {
+			// Particles of the same type are usually contiguous
+			if (this.last < this.typeCount && this.types[this.last] == type) {
+				this.counts[this.last] += count;
+				return;
+			}
+
+			for (int i = 0; i < this.typeCount; i++) {
+				if (this.types[i] == type) {
+					this.counts[i] += count;
+					this.last = i;
+					return;
+				}
+			}
+
+			if (this.typeCount == this.types.length) {
+				this.types = Arrays.copyOf(this.types, this.typeCount * 2);
+				this.counts = Arrays.copyOf(this.counts, this.typeCount * 2);
+			}
+
+			this.types[this.typeCount] = type;
+			this.counts[this.typeCount] = count;
+			this.last = this.typeCount++;
+		}
+
+		private static int cell(double v, double size) {
+			int c = (int) (v / size * DISTRIBUTION_CELLS);
+			return c < 0 ? 0 : c < DISTRIBUTION_CELLS ? c : DISTRIBUTION_CELLS - 1;
+		}
+	}
+}
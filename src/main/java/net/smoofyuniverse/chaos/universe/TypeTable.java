@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import net.smoofyuniverse.chaos.type.InteractionKernel;
+import net.smoofyuniverse.chaos.type.SymmetricType;
+import net.smoofyuniverse.chaos.type.TabulatedType;
+import net.smoofyuniverse.chaos.type.Type;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Dense ids for the types of a universe, with their kernel parameters packed by id
+public final class TypeTable {
+	private final Map<Type, Integer> ids = new IdentityHashMap<>();
+	private Type[] types = new Type[8];
+	private double[] parameters = new double[8 * Type.PARAMETERS];
+	private float[] floatParameters = new float[8 * Type.PARAMETERS];
+	private int size;
+	private double forceTolerance;
+	private InteractionKernel kernel;
+
+	public int register(Type type) {
+		if (type == null)
+			throw new IllegalArgumentException("type");
+
+		Integer id = this.ids.get(type);
+		if (id != null)
+			return id;
+
+		int i = this.size;
+		if (i == this.types.length) {
+			this.types = Arrays.copyOf(this.types, i * 2);
+			this.parameters = Arrays.copyOf(this.parameters, i * 2 * Type.PARAMETERS);
+			this.floatParameters = Arrays.copyOf(this.floatParameters, i * 2 * Type.PARAMETERS);
+		}
+
+		this.types[i] = type;
+		if (type instanceof TabulatedType)
+			((TabulatedType) type).setForceTolerance(this.forceTolerance);
+		type.pack(this.parameters, i * Type.PARAMETERS);
+		for (int j = i * Type.PARAMETERS; j < (i + 1) * Type.PARAMETERS; j++)
+			this.floatParameters[j] = (float) this.parameters[j];
+		this.ids.put(type, i);
+		this.size = i + 1;
+		this.kernel = null;
+		return i;
+	}
+
+	public int getId(Type type) {
+		Integer id = this.ids.get(type);
+		return id == null ? -1 : id;
+	}
+
+	public Type get(int id) {
+		return id < 0 ? null : this.types[id];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// Laid out as Type.PARAMETERS consecutive values per id
+	public double[] getParameters() {
+		return this.parameters;
+	}
+
+	// Same layout, rounded for the single precision kernels
+	public float[] getFloatParameters() {
+		return this.floatParameters;
+	}
+
+	public double getMaxInteractionRadius() {
+		double radius = 0;
+		for (int i = 0; i < this.size; i++)
+			radius = Math.max(radius, this.types[i].getInteractionRadius());
+		return radius;
+	}
+
+	// Rebuilt when the types or their force tables change, dispatches to the emitter type when no type provides a kernel
+	public InteractionKernel getKernel() {
+		if (this.kernel == null) {
+			InteractionKernel kernel = this.size == 0 ? null : this.types[0].createKernel(this);
+			this.kernel = kernel != null ? kernel : (particles, emitter, receiver) -> particles.getType(emitter).applyInteractions(particles, emitter, receiver);
+		}
+		return this.kernel;
+	}
+
+	public boolean isSymmetric() {
+		for (int i = 0; i < this.size; i++) {
+			if (!(this.types[i] instanceof SymmetricType))
+				return false;
+		}
+		return true;
+	}
+
+	public double getForceTolerance() {
+		return this.forceTolerance;
+	}
+
+	// Applies to the registered types and to those registered later, see TabulatedType
+	public void setForceTolerance(double value) {
+		if (!(value >= 0))
+			throw new IllegalArgumentException("value");
+		this.forceTolerance = value;
+		this.kernel = null;
+		for (int i = 0; i < this.size; i++) {
+			if (this.types[i] instanceof TabulatedType)
+				((TabulatedType) this.types[i]).setForceTolerance(value);
+		}
+	}
+
+	public Type[] toArray() {
+		return Arrays.copyOf(this.types, this.size);
+	}
+
+	void clear() {
+		Arrays.fill(this.types, 0, this.size, null);
+		this.ids.clear();
+		this.size = 0;
+		this.kernel = null;
+	}
+}
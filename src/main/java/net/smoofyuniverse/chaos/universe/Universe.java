@@ -23,29 +23,142 @@
 package net.smoofyuniverse.chaos.universe;
 
 import javafx.scene.canvas.GraphicsContext;
+import net.smoofyuniverse.chaos.type.InteractionKernel;
+import net.smoofyuniverse.chaos.type.SymmetricType;
 import net.smoofyuniverse.chaos.type.Type;
+import net.smoofyuniverse.chaos.util.MpscQueue;
 import net.smoofyuniverse.common.logger.ApplicationLogger;
 import org.slf4j.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.function.Consumer;
 import java.util.function.IntConsumer;
 
 public final class Universe {
 	private static final Logger logger = ApplicationLogger.get(Universe.class);
+	private static final int GENERATION_BLOCK = 1024;
+	// Fixed layout of the reductions in strict determinism mode, in particles and in accumulators of the symmetric engine
+	private static final int REDUCTION_BLOCK = 4096, REDUCTION_SLICES = 16;
 
-	private final List<UParticle> particles = new ArrayList<>();
+	private final ParticleStore particles;
 	private final Executor executor;
-	private final int chunks;
+	private int chunks;
+	private Statistics.Accumulator[] accumulators = new Statistics.Accumulator[0];
+	private final ClusterAnalyzer clusterAnalyzer = new ClusterAnalyzer();
+	private final MpscQueue<Consumer<Universe>> commands = new MpscQueue<>();
 
 	private double sizeX, sizeY, halfX, halfY;
-	private UParticle selection;
+	private long age;
+	private volatile Statistics statistics = Statistics.EMPTY;
+	private boolean statisticsDirty;
+	private volatile Clusters clusters = Clusters.EMPTY;
+	private int clusterInterval;
+	private double sleepTolerance;
+	private int sleepDelay = 30;
+	private int[] awake = new int[0];
+	private Engine engine = Engine.BRUTE_FORCE;
+	private double cellScale = 1;
+	private final SpatialGrid pairGrid = new SpatialGrid();
+	private final HierarchicalGrid levelGrid = new HierarchicalGrid();
+	private final LoadBalancer gridBalancer = new LoadBalancer(), symmetricBalancer = new LoadBalancer(), levelBalancer = new LoadBalancer();
+	private final List<PairForces> pairForces = new ArrayList<>();
+	private final Queue<PairForces> freePairForces = new ConcurrentLinkedQueue<>();
+	private long[] busy;
+	private volatile long[] busyTimes = new long[0];
+	private volatile double loadImbalance = 1;
+	private AutoTuner tuner;
+	private boolean strictDeterminism;
+	private final SpatialGrid index = new SpatialGrid();
+	private boolean indexDirty = true;
+	private int selection = -1;
 
 	public Universe(Executor executor, int chunks) {
+		this(executor, chunks, Precision.DOUBLE);
+	}
+
+	public Universe(Executor executor, int chunks, Precision precision) {
+		this(executor, chunks, precision, Storage.HEAP);
+	}
+
+	public Universe(Executor executor, int chunks, Precision precision, Storage storage) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		if (chunks <= 0)
+			throw new IllegalArgumentException("chunks");
+		this.particles = ParticleStore.create(precision, storage, 0);
 		this.executor = executor;
-		this.chunks = chunks;
+		setChunks(chunks);
+	}
+
+	public int getChunks() {
+		return this.chunks;
+	}
+
+	public void setChunks(int value) {
+		if (value <= 0)
+			throw new IllegalArgumentException("value");
+		if (value == this.chunks)
+			return;
+
+		this.chunks = value;
+		this.busy = new long[value];
+	}
+
+	public Engine getEngine() {
+		return this.engine;
+	}
+
+	public void setEngine(Engine value) {
+		if (value == null)
+			throw new IllegalArgumentException("value");
+		this.engine = value;
+	}
+
+	public double getCellScale() {
+		return this.cellScale;
+	}
+
+	// Size of the grid cells relative to the largest interaction radius
+	public void setCellScale(double value) {
+		if (!(value > 0))
+			throw new IllegalArgumentException("value");
+		this.cellScale = value;
+	}
+
+	// Time spent by each chunk in the last pair loop, in nanoseconds
+	public long[] getBusyTimes() {
+		return this.busyTimes.clone();
+	}
+
+	// Estimated ratio between the most expensive chunk of the pair loop and the mean, 1 when the load is even
+	public double getLoadImbalance() {
+		return this.loadImbalance;
+	}
+
+	public boolean isAutoTuning() {
+		return this.tuner != null;
+	}
+
+	// The tuner periodically tries other engines, chunk counts and cell scales, and keeps the fastest
+	public void setAutoTuning(boolean value) {
+		if (value == (this.tuner != null))
+			return;
+		this.tuner = value ? new AutoTuner(this) : null;
+	}
+
+	public boolean isStrictDeterminism() {
+		return this.strictDeterminism;
+	}
+
+	// Every reduction is done in a fixed order so that the results do not depend on the number of chunks or threads
+	// The tuner then only tries other chunk counts since the other settings change the results
+	public void setStrictDeterminism(boolean value) {
+		this.strictDeterminism = value;
 	}
 
 	public double getSizeX() {
@@ -70,6 +183,84 @@ public final class Universe {
 		this.halfY = value / 2d;
 	}
 
+	public Precision getPrecision() {
+		return this.particles.getPrecision();
+	}
+
+	public Storage getStorage() {
+		return this.particles.getStorage();
+	}
+
+	public long getAge() {
+		return this.age;
+	}
+
+	public Statistics getStatistics() {
+		return this.statistics;
+	}
+
+	public Clusters getClusters() {
+		return this.clusters;
+	}
+
+	public int getClusterInterval() {
+		return this.clusterInterval;
+	}
+
+	public void setClusterInterval(int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("value");
+		this.clusterInterval = value;
+	}
+
+	public int getClusterMinSize() {
+		return this.clusterAnalyzer.minSize;
+	}
+
+	public void setClusterMinSize(int value) {
+		if (value < 1)
+			throw new IllegalArgumentException("value");
+		this.clusterAnalyzer.minSize = value;
+	}
+
+	public double getSleepTolerance() {
+		return this.sleepTolerance;
+	}
+
+	// Particles whose speed and force stay below the tolerance for the delay fall asleep, zero disables sleeping
+	public void setSleepTolerance(double value) {
+		if (!(value >= 0))
+			throw new IllegalArgumentException("value");
+		this.sleepTolerance = value;
+		if (value == 0)
+			wakeAll();
+	}
+
+	public double getForceTolerance() {
+		return this.particles.getTypeTable().getForceTolerance();
+	}
+
+	public void setForceTolerance(double value) {
+		this.particles.getTypeTable().setForceTolerance(value);
+	}
+
+	public int getSleepDelay() {
+		return this.sleepDelay;
+	}
+
+	public void setSleepDelay(int value) {
+		if (value < 1)
+			throw new IllegalArgumentException("value");
+		this.sleepDelay = value;
+	}
+
+	public void wakeAll() {
+		ParticleStore s = this.particles;
+		int size = s.size();
+		for (int i = 0; i < size; i++)
+			s.setIdle(i, 0);
+	}
+
 	public double getDeltaX(double x1, double x2) {
 		double d = x2 - x1;
 		if (d > this.halfX)
@@ -125,228 +316,865 @@ public final class Universe {
 		doAt(x, y, radius, (a, b) -> g.fillOval(a - radius, b - radius, radius2, radius2));
 	}
 
-	public void add(Particle particle) {
-		if (particle.type != null)
-			this.particles.add(new UParticle(particle));
+	public int size() {
+		return this.particles.size();
+	}
+
+	public ParticleStore getParticles() {
+		return this.particles;
+	}
+
+	public void reserve(int capacity) {
+		this.particles.reserve(capacity);
+	}
+
+	public void add(Type type, Particle particle) {
+		if (type == null)
+			throw new IllegalArgumentException("type");
+
+		ParticleStore s = this.particles;
+		int i = s.add(particle);
+		s.setTypeId(i, s.getTypeTable().register(type));
+		this.statisticsDirty = true;
+		this.indexDirty = true;
+	}
+
+	// Particle type ids index the types array
+	public void addAll(Type[] types, Particle[] particles) {
+		for (Particle p : particles) {
+			if (p.typeId < 0 || p.typeId >= types.length)
+				throw new IllegalArgumentException("particles");
+		}
+
+		ParticleStore s = this.particles;
+		int[] ids = new int[types.length];
+		for (int i = 0; i < types.length; i++)
+			ids[i] = types[i] == null ? -1 : s.getTypeTable().register(types[i]);
+
+		s.reserve(s.size() + particles.length);
+		for (Particle p : particles) {
+			int id = ids[p.typeId];
+			if (id != -1)
+				s.setTypeId(s.add(p), id);
+		}
+		this.statisticsDirty = true;
+		this.indexDirty = true;
+	}
+
+	public void addAll(Type type, double[] positionX, double[] positionY, double[] speedX, double[] speedY, int offset, int length) {
+		if (type == null)
+			throw new IllegalArgumentException("type");
+		if (offset < 0 || length < 0 || offset + length > positionX.length || offset + length > positionY.length
+				|| offset + length > speedX.length || offset + length > speedY.length)
+			throw new IndexOutOfBoundsException();
+
+		this.particles.addAll(type, type.createDefault(), positionX, positionY, speedX, speedY, offset, length);
+		this.statisticsDirty = true;
+		this.indexDirty = true;
+	}
+
+	public void generate(Type[] types, int[] counts, long seed) {
+		if (types.length != counts.length)
+			throw new IllegalArgumentException("types, counts");
+
+		int total = 0, blocks = 0;
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == null)
+				throw new IllegalArgumentException("types");
+			if (counts[i] < 0)
+				throw new IllegalArgumentException("counts");
+			total += counts[i];
+			blocks += (counts[i] + GENERATION_BLOCK - 1) / GENERATION_BLOCK;
+		}
+
+		// Registered before the store grows, so that an invalid type leaves no uninitialized particle
+		int[] ids = new int[types.length];
+		for (int i = 0; i < types.length; i++)
+			ids[i] = this.particles.getTypeTable().register(types[i]);
+
+		// Streams are split sequentially so that the result does not depend on the number of threads
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[blocks];
+		Type[] blockTypes = new Type[blocks];
+		int[] blockIds = new int[blocks], blockStarts = new int[blocks], blockEnds = new int[blocks];
+
+		int offset = this.particles.grow(total);
+		int b = 0, start = offset;
+		for (int i = 0; i < types.length; i++) {
+			SplittableRandom typeRandom = root.split();
+			int id = ids[i];
+			int end = start + counts[i];
+			for (int j = start; j < end; j += GENERATION_BLOCK) {
+				randoms[b] = typeRandom.split();
+				blockTypes[b] = types[i];
+				blockIds[b] = id;
+				blockStarts[b] = j;
+				blockEnds[b] = Math.min(j + GENERATION_BLOCK, end);
+				b++;
+			}
+			start = end;
+		}
+
+		forEach(i -> {
+			Type type = blockTypes[i];
+			SplittableRandom random = randoms[i];
+			for (int j = blockStarts[i]; j < blockEnds[i]; j++) {
+				Particle p = type.createRandom(random);
+				p.typeId = blockIds[i];
+				this.particles.set(j, p);
+			}
+		}, blocks);
+		this.statisticsDirty = true;
+		this.indexDirty = true;
 	}
 
 	public void clear() {
-		this.particles.clear();
-		this.selection = null;
+		this.particles.truncate(0);
+		this.particles.getTypeTable().clear();
+		this.selection = -1;
+		this.age = 0;
+		this.statistics = Statistics.EMPTY;
+		this.statisticsDirty = false;
+		this.clusters = Clusters.EMPTY;
+		this.clusterAnalyzer.reset();
+		this.indexDirty = true;
+	}
+
+	public void restore(Snapshot snapshot) {
+		clear();
+		setSizeX(snapshot.sizeX);
+		setSizeY(snapshot.sizeY);
+		this.age = snapshot.age;
+		addAll(snapshot.types, snapshot.particles);
 	}
 
 	public void select(double x, double y) {
-		double sel_d2 = Double.MAX_VALUE;
-		UParticle sel = null;
+		int sel = pick(x, y);
+		if (sel != -1)
+			this.selection = sel;
+	}
 
-		for (UParticle p : this.particles) {
-			double dx = p.positionX - x, dy = p.positionY - y;
+	public int pick(double x, double y) {
+		if (this.sizeX == 0 || this.sizeY == 0)
+			return -1;
+
+		ParticleStore s = this.particles;
+		double range = getIndex().getMaxRadius();
+		double[] sel_d2 = {Double.MAX_VALUE};
+		int[] sel = {-1};
+
+		forEachCandidate(x, y, range, range, i -> {
+			double dx = getDeltaX(x, s.getPositionX(i)), dy = getDeltaY(y, s.getPositionY(i));
 			double d2 = dx * dx + dy * dy;
-			if (d2 < sel_d2 && d2 < p.radius * p.radius) {
-				sel_d2 = d2;
-				sel = p;
+			double r = s.getRadius(i);
+			if (d2 < sel_d2[0] && d2 < r * r) {
+				sel_d2[0] = d2;
+				sel[0] = i;
 			}
-		}
+		});
 
-		if (sel != null)
-			select(sel);
+		return sel[0];
 	}
 
-	public void select(UParticle p) {
-		if (this.selection != null)
-			this.selection.selected = false;
+	public void queryCircle(double x, double y, double radius, IntConsumer consumer) {
+		if (radius < 0)
+			throw new IllegalArgumentException("radius");
 
-		p.selected = true;
-		this.selection = p;
+		ParticleStore s = this.particles;
+		double r2 = radius * radius;
+		forEachCandidate(x, y, radius, radius, i -> {
+			double dx = getDeltaX(x, s.getPositionX(i)), dy = getDeltaY(y, s.getPositionY(i));
+			if (dx * dx + dy * dy <= r2)
+				consumer.accept(i);
+		});
+	}
+
+	public void queryRect(double minX, double minY, double maxX, double maxY, IntConsumer consumer) {
+		if (maxX < minX || maxY < minY)
+			throw new IllegalArgumentException("bounds");
+
+		ParticleStore s = this.particles;
+		double x = (minX + maxX) / 2d, y = (minY + maxY) / 2d, rangeX = (maxX - minX) / 2d, rangeY = (maxY - minY) / 2d;
+		forEachCandidate(x, y, rangeX, rangeY, i -> {
+			if (Math.abs(getDeltaX(x, s.getPositionX(i))) <= rangeX && Math.abs(getDeltaY(y, s.getPositionY(i))) <= rangeY)
+				consumer.accept(i);
+		});
+	}
+
+	private void forEachCandidate(double x, double y, double rangeX, double rangeY, IntConsumer consumer) {
+		if (this.sizeX == 0 || this.sizeY == 0)
+			return;
+
+		SpatialGrid grid = getIndex();
+		if (grid.size() == 0)
+			return;
+
+		int cell = grid.cellAt(validatePositionX(x), validatePositionY(y));
+		int rx = (int) Math.min(Math.ceil(rangeX / grid.getCellSizeX()), grid.getCellsX());
+		int ry = (int) Math.min(Math.ceil(rangeY / grid.getCellSizeY()), grid.getCellsY());
+
+		int[] cells = new int[Math.min(grid.getCellCount(), (2 * rx + 1) * (2 * ry + 1))];
+		int n = grid.getNeighborCells(cell % grid.getCellsX(), cell / grid.getCellsX(), rx, ry, cells);
+		for (int k = 0; k < n; k++) {
+			int end = grid.getCellEnd(cells[k]);
+			for (int slot = grid.getCellStart(cells[k]); slot < end; slot++)
+				consumer.accept(grid.getParticle(slot));
+		}
+	}
+
+	private SpatialGrid getIndex() {
+		if (this.indexDirty) {
+			// About four particles per cell on average
+			double cellSize = Math.sqrt(this.sizeX * this.sizeY * 4 / Math.max(this.particles.size(), 1));
+			this.index.update(this, this.particles, null, 0, this.particles.size(), this.sizeX, this.sizeY, cellSize);
+			this.indexDirty = false;
+		}
+		return this.index;
 	}
 
 	public void deselect() {
-		if (this.selection != null)
-			this.selection.selected = false;
-		this.selection = null;
+		this.selection = -1;
+	}
+
+	public boolean isSelected(int i) {
+		return this.selection == i;
 	}
 
 	public void moveSelection(double x, double y) {
-		if (this.selection == null || this.selection.type == null)
+		int sel = this.selection;
+		if (sel == -1 || sel >= this.particles.size())
 			return;
 
-		this.selection.mutable.positionX = x;
-		this.selection.mutable.positionY = y;
-		this.selection.positionX = x;
-		this.selection.positionY = y;
+		this.particles.setPosition(sel, x, y);
+		this.statisticsDirty = true;
+		this.indexDirty = true;
+	}
+
+	// Thread-safe, the command runs on the simulation thread at the next tick boundary
+	public void submit(Consumer<Universe> command) {
+		this.commands.offer(command);
+	}
+
+	public int processCommands() {
+		return this.commands.drain(c -> c.accept(this));
+	}
+
+	// Thread-safe, the impulse is applied at the start of the next tick
+	public void applyImpulse(double x, double y, double radius, double strength) {
+		if (!(radius > 0))
+			throw new IllegalArgumentException("radius");
+		submit(u -> u.impulse(x, y, radius, strength));
 	}
 
 	public void tick() {
+		processCommands();
+		long tickStart = System.nanoTime();
+
 		if (this.sizeX == 0 || this.sizeY == 0)
 			throw new IllegalStateException("Invalid size");
 
-		int size = this.particles.size();
-		forEach(i -> {
-			UParticle r = this.particles.get(i);
+		ParticleStore s = this.particles;
+		int size = s.size();
+		double tolerance2 = this.sleepTolerance * this.sleepTolerance;
+		boolean sleeping = tolerance2 != 0;
+		int delay = this.sleepDelay;
+
+		// Resolved once per tick, the pair loops neither look up the emitter type nor fetch its parameters
+		InteractionKernel kernel = s.getTypeTable().getKernel();
+
+		Arrays.fill(this.busy, 0);
+		switch (this.engine) {
+			case GRID:
+				interactGrid(s, kernel, sleeping, delay);
+				break;
+			case SYMMETRIC_GRID:
+				if (s.getTypeTable().isSymmetric())
+					interactSymmetric(s, sleeping, delay);
+				else
+					interactGrid(s, kernel, sleeping, delay);
+				break;
+			case HIERARCHICAL_GRID:
+				interactHierarchical(s, kernel, sleeping, delay);
+				break;
+			default:
+				interactBruteForce(s, kernel, size, sleeping, delay);
+				this.loadImbalance = 1;
+				break;
+		}
+		this.busyTimes = this.busy.clone();
 
-			for (int j = 0; j < size; j++) {
-				if (i != j) {
-					UParticle e = this.particles.get(j);
-					e.type.applyInteractions(e, r);
+		int sel = this.selection;
+		int[] bounds = statisticsBounds(size);
+		Statistics.Accumulator[] accumulators = resetAccumulators(bounds.length - 1);
+
+		forEachRange((chunk, start, end) -> {
+			Statistics.Accumulator acc = accumulators[chunk];
+
+			for (int i = start; i < end; i++) {
+				if (i == sel) {
+					s.setAcceleration(i, 0, 0);
+					s.setSpeed(i, 0, 0);
+					s.setIdle(i, 0);
+				} else if (sleeping) {
+					double fx = s.getForceX(i), fy = s.getForceY(i), f2 = fx * fx + fy * fy;
+
+					if (s.getIdle(i) >= delay) {
+						// The force only comes from awake emitters, a woken particle moves from the next tick
+						if (f2 > tolerance2)
+							s.setIdle(i, 0);
+						else
+							acc.sleeping++;
+
+						s.setForce(i, 0, 0);
+						acc.add(s.getType(i), s.getPositionX(i), s.getPositionY(i), this.sizeX, this.sizeY, s.getSpeedX(i), s.getSpeedY(i));
+						continue;
+					}
+
+					s.getType(i).tickStandalone(s, i);
+					if (s.getType(i) == null)
+						continue;
+
+					double vx = s.getSpeedX(i), vy = s.getSpeedY(i);
+					s.setIdle(i, vx * vx + vy * vy <= tolerance2 && f2 <= tolerance2 ? Math.min(s.getIdle(i) + 1, delay) : 0);
+				} else {
+					s.getType(i).tickStandalone(s, i);
+					if (s.getType(i) == null)
+						continue;
 				}
+
+				double x = validatePositionX(s.getPositionX(i)), y = validatePositionY(s.getPositionY(i));
+				s.setPosition(i, x, y);
+				s.setForce(i, 0, 0);
+
+				acc.add(s.getType(i), x, y, this.sizeX, this.sizeY, s.getSpeedX(i), s.getSpeedY(i));
 			}
-		}, size);
+		}, bounds);
 
-		forEach(i -> {
-			UParticle p = this.particles.get(i);
-			p.type.tickStandalone(p);
+		removeDead();
+		this.indexDirty = true;
+		this.age++;
+
+		this.statistics = Statistics.merge(this.age, accumulators, bounds.length - 1);
+		this.statisticsDirty = false;
+
+		if (this.clusterInterval != 0 && this.age % this.clusterInterval == 0)
+			analyzeClusters();
+
+		if (this.tuner != null)
+			this.tuner.update(this, System.nanoTime() - tickStart);
+	}
+
+	private void interactBruteForce(ParticleStore s, InteractionKernel kernel, int size, boolean sleeping, int delay) {
+		if (sleeping) {
+			if (this.awake.length < size)
+				this.awake = new int[size];
+
+			int[] awake = this.awake;
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (s.getIdle(i) < delay)
+					awake[n++] = i;
+			}
+
+			// Pairs where both sides sleep are skipped, sleeping receivers only feel awake emitters
+			int awakeCount = n;
+			forEachChunk(timed((chunk, start, end) -> {
+				for (int i = start; i < end; i++) {
+					if (s.getIdle(i) < delay) {
+						for (int j = 0; j < size; j++) {
+							if (i != j)
+								kernel.applyInteractions(s, j, i);
+						}
+					} else {
+						for (int k = 0; k < awakeCount; k++)
+							kernel.applyInteractions(s, awake[k], i);
+					}
+				}
+			}), size);
+		} else {
+			forEachChunk(timed((chunk, start, end) -> {
+				for (int i = start; i < end; i++) {
+					for (int j = 0; j < size; j++) {
+						if (i != j)
+							kernel.applyInteractions(s, j, i);
+					}
+				}
+			}), size);
+		}
+	}
+
+	private void interactGrid(ParticleStore s, InteractionKernel kernel, boolean sleeping, int delay) {
+		double cutoff = s.getTypeTable().getMaxInteractionRadius();
+		if (cutoff == 0)
+			return;
+
+		SpatialGrid grid = this.pairGrid;
+		grid.update(this, s, null, 0, s.size(), this.sizeX, this.sizeY, cutoff * this.cellScale);
 
-			if (p.mutable.type == null)
+		int cellsX = grid.getCellsX(), cellCount = grid.getCellCount();
+		int rx = (int) Math.min(Math.ceil(cutoff / grid.getCellSizeX()), grid.getCellsX());
+		int ry = (int) Math.min(Math.ceil(cutoff / grid.getCellSizeY()), grid.getCellsY());
+		int maxNeighbors = Math.min(cellCount, (2 * rx + 1) * (2 * ry + 1));
+
+		// Each receiver is handled by the chunk owning its cell, sleeping receivers only feel awake emitters
+		// Chunks are contiguous cell ranges balanced on the pairs each cell visited at the previous tick
+		LoadBalancer balancer = this.gridBalancer;
+		int[] bounds = balancer.partition(cellCount, this.chunks);
+
+		forEachRange(timed((chunk, start, end) -> {
+			int[] cells = new int[maxNeighbors];
+			for (int c = start; c < end; c++) {
+				int first = grid.getCellStart(c), last = grid.getCellEnd(c);
+				if (first == last) {
+					balancer.record(c, 0);
+					continue;
+				}
+
+				int n = grid.getNeighborCells(c % cellsX, c / cellsX, rx, ry, cells);
+				long neighbors = 0;
+				for (int k = 0; k < n; k++)
+					neighbors += grid.getCellEnd(cells[k]) - grid.getCellStart(cells[k]);
+				balancer.record(c, neighbors * (last - first));
+
+				for (int slot = first; slot < last; slot++) {
+					int i = grid.getParticle(slot);
+					boolean awake = !sleeping || s.getIdle(i) < delay;
+					for (int k = 0; k < n; k++) {
+						int cellEnd = grid.getCellEnd(cells[k]);
+						for (int other = grid.getCellStart(cells[k]); other < cellEnd; other++) {
+							int j = grid.getParticle(other);
+							if (j != i && (awake || s.getIdle(j) < delay))
+								kernel.applyInteractions(s, j, i);
+						}
+					}
+				}
+			}
+		}), bounds);
+
+		balancer.update();
+		this.loadImbalance = balancer.getImbalance();
+	}
+
+	private void interactSymmetric(ParticleStore s, boolean sleeping, int delay) {
+		TypeTable table = s.getTypeTable();
+		double cutoff = table.getMaxInteractionRadius();
+		if (cutoff == 0)
+			return;
+
+		SpatialGrid grid = this.pairGrid;
+		int size = s.size();
+		grid.update(this, s, null, 0, size, this.sizeX, this.sizeY, cutoff * this.cellScale);
+
+		int cellsX = grid.getCellsX(), cellCount = grid.getCellCount();
+		int rx = (int) Math.min(Math.ceil(cutoff / grid.getCellSizeX()), grid.getCellsX());
+		int ry = (int) Math.min(Math.ceil(cutoff / grid.getCellSizeY()), grid.getCellsY());
+		int maxNeighbors = Math.min(cellCount, (2 * rx + 1) * (2 * ry + 1));
+
+		SymmetricType[] laws = new SymmetricType[table.size()];
+		double[] radii2 = new double[table.size()];
+		for (int id = 0; id < laws.length; id++) {
+			laws[id] = (SymmetricType) table.get(id);
+			double r = laws[id].getInteractionRadius();
+			radii2[id] = r * r;
+		}
+
+		// Force accumulators since both sides of a pair may belong to other chunks
+		// In normal mode each chunk takes a free accumulator, so that their number follows the threads rather than the chunks
+		// In strict mode there is one accumulator per slice of cells, their number is fixed and each chunk takes whole slices
+		if (!this.pairForces.isEmpty() && this.pairForces.get(0).x.length < size)
+			this.pairForces.clear();
+		boolean strict = this.strictDeterminism;
+		int chunks = this.chunks, slices = strict ? REDUCTION_SLICES : chunks;
+		if (strict) {
+			while (this.pairForces.size() < REDUCTION_SLICES)
+				createPairForces(size);
+		} else {
+			this.freePairForces.clear();
+			this.freePairForces.addAll(this.pairForces);
+		}
+
+		// Each cell pairs with itself and with the neighbor cells of higher index, so every unordered pair is visited once
+		// Pairs where both sides sleep are skipped, otherwise both directions are applied
+		LoadBalancer balancer = this.symmetricBalancer;
+		int[] sliceBounds = balancer.partition(cellCount, slices), bounds = sliceBounds;
+		if (slices != chunks) {
+			bounds = new int[chunks + 1];
+			for (int k = 0; k <= chunks; k++)
+				bounds[k] = sliceBounds[(int) ((long) k * slices / chunks)];
+		}
+
+		forEachRange(timed((chunk, start, end) -> {
+			if (start == end)
 				return;
 
-			validatePositionX(p.mutable);
-			validatePositionY(p.mutable);
+			PairForces forces = strict ? null : acquirePairForces(size);
+			int slice = -1;
+			int[] cells = new int[maxNeighbors];
+			for (int c = start; c < end; c++) {
+				if (strict && (slice == -1 || c >= sliceBounds[slice + 1])) {
+					do {
+						slice++;
+					} while (c >= sliceBounds[slice + 1]);
+					forces = this.pairForces.get(slice);
+					forces.used = true;
+				}
+				double[] fx = forces.x, fy = forces.y;
+
+				int first = grid.getCellStart(c), last = grid.getCellEnd(c);
+				if (first == last) {
+					balancer.record(c, 0);
+					continue;
+				}
+
+				int n = grid.getNeighborCells(c % cellsX, c / cellsX, rx, ry, cells);
+				long neighbors = 0;
+				for (int k = 0; k < n; k++) {
+					if (cells[k] >= c)
+						neighbors += grid.getCellEnd(cells[k]) - grid.getCellStart(cells[k]);
+				}
+				balancer.record(c, neighbors * (last - first));
+
+				for (int slot = first; slot < last; slot++) {
+					int i = grid.getParticle(slot), ti = s.getTypeId(i);
+					boolean awake = !sleeping || s.getIdle(i) < delay;
+					double x = s.getPositionX(i), y = s.getPositionY(i);
+
+					for (int k = 0; k < n; k++) {
+						int other = cells[k];
+						if (other < c)
+							continue;
+
+						int cellEnd = grid.getCellEnd(other);
+						for (int o = other == c ? slot + 1 : grid.getCellStart(other); o < cellEnd; o++) {
+							int j = grid.getParticle(o);
+							if (!awake && s.getIdle(j) >= delay)
+								continue;
+
+							double dx = getDeltaX(x, s.getPositionX(j)), dy = getDeltaY(y, s.getPositionY(j));
+							double d2 = dx * dx + dy * dy;
+							int tj = s.getTypeId(j);
+							if (d2 > radii2[ti] && d2 > radii2[tj])
+								continue;
+
+							double d = Math.sqrt(d2);
+							laws[tj].applyInteraction(s, j, i, dx, dy, d2, d, fx, fy);
+							laws[ti].applyInteraction(s, i, j, -dx, -dy, d2, d, fx, fy);
+						}
+					}
+				}
+			}
+
+			if (!strict)
+				this.freePairForces.add(forces);
+		}), bounds);
 
-			p.mutable.forceX = 0;
-			p.mutable.forceY = 0;
+		balancer.update();
+		this.loadImbalance = balancer.getImbalance();
+
+		// Merged in creation order, which is the slice order in strict mode, and cleared for the next tick
+		int used = 0;
+		PairForces[] all = new PairForces[this.pairForces.size()];
+		for (PairForces forces : this.pairForces) {
+			if (forces.used) {
+				forces.used = false;
+				all[used++] = forces;
+			}
+		}
+		PairForces[] merged = Arrays.copyOf(all, used);
+		forEachChunk((chunk, start, end) -> {
+			for (int i = start; i < end; i++) {
+				double x = 0, y = 0;
+				for (PairForces forces : merged) {
+					x += forces.x[i];
+					y += forces.y[i];
+					forces.x[i] = 0;
+					forces.y[i] = 0;
+				}
+				s.addForce(i, x, y);
+			}
 		}, size);
+	}
+
+	// At most as many as the chunks running at once
+	private PairForces acquirePairForces(int size) {
+		PairForces forces = this.freePairForces.poll();
+		if (forces == null)
+			forces = createPairForces(size);
+		forces.used = true;
+		return forces;
+	}
+
+	private PairForces createPairForces(int size) {
+		PairForces forces = new PairForces(size);
+		synchronized (this.pairForces) {
+			this.pairForces.add(forces);
+		}
+		return forces;
+	}
+
+	private void interactHierarchical(ParticleStore s, InteractionKernel kernel, boolean sleeping, int delay) {
+		HierarchicalGrid grid = this.levelGrid;
+		grid.update(this, s, this.sizeX, this.sizeY);
+
+		int levels = grid.getLevels();
+		if (levels == 0)
+			return;
+
+		// Each level is searched only as far as the radius of the types binned there
+		// Chunks are contiguous receiver ranges balanced on the pairs each slot visited at the previous tick
+		LoadBalancer balancer = this.levelBalancer;
+		int[] bounds = balancer.partition(grid.size(), this.chunks);
+
+		forEachRange(timed((chunk, start, end) -> {
+			int[] cells = new int[grid.getMaxNeighborCells()];
+			for (int slot = start; slot < end; slot++) {
+				int i = grid.getReceiver(slot);
+				boolean awake = !sleeping || s.getIdle(i) < delay;
+				double x = s.getPositionX(i), y = s.getPositionY(i);
+				long neighbors = 0;
+
+				for (int l = 0; l < levels; l++) {
+					SpatialGrid level = grid.getLevel(l);
+					if (level.size() == 0)
+						continue;
 
-		this.particles.removeIf(p -> {
-			if (p.mutable.type == null)
-				return true;
-			p.save();
-			return false;
+					int n = grid.getNeighborCells(l, x, y, cells);
+					for (int k = 0; k < n; k++) {
+						int cellEnd = level.getCellEnd(cells[k]);
+						int cellStart = level.getCellStart(cells[k]);
+						neighbors += cellEnd - cellStart;
+						for (int other = cellStart; other < cellEnd; other++) {
+							int j = level.getParticle(other);
+							if (j != i && (awake || s.getIdle(j) < delay))
+								kernel.applyInteractions(s, j, i);
+						}
+					}
+				}
+				balancer.record(slot, neighbors);
+			}
+		}), bounds);
+
+		balancer.update();
+		this.loadImbalance = balancer.getImbalance();
+	}
+
+	public Clusters analyzeClusters() {
+		if (this.statisticsDirty)
+			collectStatistics();
+
+		return this.clusters = this.clusterAnalyzer.analyze(this, this.statistics);
+	}
+
+	private void impulse(double x, double y, double radius, double strength) {
+		ParticleStore s = this.particles;
+		queryCircle(x, y, radius, i -> {
+			if (i == this.selection)
+				return;
+
+			double dx = getDeltaX(s.getPositionX(i), x), dy = getDeltaY(s.getPositionY(i), y);
+			double d = Math.sqrt(dx * dx + dy * dy);
+			if (d == 0)
+				return;
+
+			// Positive strength attracts, fading linearly to zero at the edge
+			// Some damping keeps attracted particles from overshooting the center
+			double w = 1 - d / radius, k = strength * w / d, damping = 1 - w * 0.1;
+			s.setSpeed(i, s.getSpeedX(i) * damping + dx * k, s.getSpeedY(i) * damping + dy * k);
+			s.setIdle(i, 0);
 		});
+		this.statisticsDirty = true;
+	}
+
+	private void collectStatistics() {
+		ParticleStore s = this.particles;
+		int size = s.size();
+		boolean sleeping = this.sleepTolerance != 0;
+		int delay = this.sleepDelay;
+		int[] bounds = statisticsBounds(size);
+		Statistics.Accumulator[] accumulators = resetAccumulators(bounds.length - 1);
+
+		forEachRange((chunk, start, end) -> {
+			Statistics.Accumulator acc = accumulators[chunk];
+			for (int i = start; i < end; i++) {
+				acc.add(s.getType(i), s.getPositionX(i), s.getPositionY(i), this.sizeX, this.sizeY, s.getSpeedX(i), s.getSpeedY(i));
+				if (sleeping && s.getIdle(i) >= delay)
+					acc.sleeping++;
+			}
+		}, bounds);
+
+		this.statistics = Statistics.merge(this.age, accumulators, bounds.length - 1);
+		this.statisticsDirty = false;
+	}
+
+	// Chunks in normal mode, fixed blocks in strict mode so that the partial sums do not depend on the number of chunks
+	private int[] statisticsBounds(int size) {
+		if (!this.strictDeterminism)
+			return chunkBounds(size);
+
+		int blocks = Math.max(1, (size + REDUCTION_BLOCK - 1) / REDUCTION_BLOCK);
+		int[] bounds = new int[blocks + 1];
+		for (int i = 0; i < blocks; i++)
+			bounds[i] = i * REDUCTION_BLOCK;
+		bounds[blocks] = size;
+		return bounds;
+	}
+
+	private Statistics.Accumulator[] resetAccumulators(int count) {
+		int n = this.accumulators.length;
+		if (n < count) {
+			this.accumulators = Arrays.copyOf(this.accumulators, count);
+			for (int i = n; i < count; i++)
+				this.accumulators[i] = new Statistics.Accumulator();
+		}
+		for (int i = 0; i < count; i++)
+			this.accumulators[i].reset();
+		return this.accumulators;
+	}
+
+	private void removeDead() {
+		ParticleStore s = this.particles;
+		int size = s.size(), n = 0;
+		for (int i = 0; i < size; i++) {
+			if (s.getType(i) == null) {
+				if (i == this.selection)
+					this.selection = -1;
+			} else {
+				if (n != i) {
+					s.move(i, n);
+					if (i == this.selection)
+						this.selection = n;
+				}
+				n++;
+			}
+		}
+		if (n != size)
+			s.truncate(n);
 	}
 
 	private void forEach(IntConsumer consumer, int size) {
-		CountDownLatch latch = new CountDownLatch(this.chunks);
+		forEachChunk((chunk, start, end) -> {
+			for (int j = start; j < end; j++)
+				consumer.accept(j);
+		}, size);
+	}
 
+	void forEachChunk(ChunkConsumer consumer, int size) {
+		forEachRange(consumer, chunkBounds(size));
+	}
+
+	private int[] chunkBounds(int size) {
 		int chunkSize = size / this.chunks;
-		int i = 0;
-		while (i < this.chunks) {
-			int start = i * chunkSize;
-			i++;
-			int end = i == this.chunks ? size : i * chunkSize;
+		if (chunkSize == 0)
+			return new int[]{0, size};
+
+		int[] bounds = new int[this.chunks + 1];
+		for (int i = 0; i < this.chunks; i++)
+			bounds[i] = i * chunkSize;
+		bounds[this.chunks] = size;
+		return bounds;
+	}
+
+	// Chunk i covers the range from bounds[i] to bounds[i + 1]
+	void forEachRange(ChunkConsumer consumer, int[] bounds) {
+		int last = bounds.length - 2;
+		CountDownLatch latch = new CountDownLatch(last);
+
+		for (int i = 0; i < last; i++) {
+			int chunk = i, start = bounds[i], end = bounds[i + 1];
 
 			this.executor.execute(() -> {
-				for (int j = start; j < end; j++)
-					consumer.accept(j);
-				latch.countDown();
+				try {
+					consumer.accept(chunk, start, end);
+				} finally {
+					latch.countDown();
+				}
 			});
 		}
 
+		// The calling thread processes the last chunk itself
+		consumer.accept(last, bounds[last], bounds[last + 1]);
+
 		try {
-			latch.await();
+			ForkJoinPool.managedBlock(new LatchBlocker(latch));
 		} catch (InterruptedException e) {
 			logger.error("Interruption", e);
 		}
 	}
 
-	private void validatePositionX(Particle particle) {
-		double dx = particle.positionX;
-		if (dx < 0) {
-			particle.positionX += Math.ceil(-dx / this.sizeX) * this.sizeX;
-		} else {
-			dx -= this.sizeX;
-			if (dx > 0)
-				particle.positionX -= Math.ceil(dx / this.sizeX) * this.sizeX;
-		}
+	private ChunkConsumer timed(ChunkConsumer consumer) {
+		long[] busy = this.busy;
+		return (chunk, start, end) -> {
+			long time = System.nanoTime();
+			consumer.accept(chunk, start, end);
+			busy[chunk] = System.nanoTime() - time;
+		};
 	}
 
-	private void validatePositionY(Particle particle) {
-		double dy = particle.positionY;
-		if (dy < 0) {
-			particle.positionY += Math.ceil(-dy / this.sizeY) * this.sizeY;
-		} else {
-			dy -= this.sizeY;
-			if (dy > 0)
-				particle.positionY -= Math.ceil(dy / this.sizeY) * this.sizeY;
-		}
+	private double validatePositionX(double x) {
+		if (x < 0)
+			return x + Math.ceil(-x / this.sizeX) * this.sizeX;
+		double dx = x - this.sizeX;
+		if (dx > 0)
+			return x - Math.ceil(dx / this.sizeX) * this.sizeX;
+		return x;
+	}
+
+	private double validatePositionY(double y) {
+		if (y < 0)
+			return y + Math.ceil(-y / this.sizeY) * this.sizeY;
+		double dy = y - this.sizeY;
+		if (dy > 0)
+			return y - Math.ceil(dy / this.sizeY) * this.sizeY;
+		return y;
 	}
 
 	public Snapshot snapshot() {
+		if (this.statisticsDirty)
+			collectStatistics();
+
 		Particle[] array = new Particle[this.particles.size()];
 
 		for (int i = 0; i < array.length; i++)
-			array[i] = this.particles.get(i).mutable.copy();
+			array[i] = this.particles.get(i);
 
-		return new Snapshot(this.sizeX, this.sizeY, array);
+		return new Snapshot(this.sizeX, this.sizeY, this.age, this.particles.getTypeTable().toArray(), array, this.statistics, this.clusters);
 	}
 
 	private interface BiDoubleConsumer {
 		void accept(double a, double b);
 	}
 
-	public static class UParticle implements IParticle {
-		public final Particle mutable;
-		private double accelerationX, accelerationY;
-		private double speedX, speedY;
-		private double positionX, positionY;
-		private double radius;
-		private long ticks;
-		private Type type;
-		private boolean selected;
-
-		private UParticle(Particle mutable) {
-			this.mutable = mutable;
-			save();
-		}
-
-		private void save() {
-			this.accelerationX = this.mutable.accelerationX;
-			this.accelerationY = this.mutable.accelerationY;
-			this.speedX = this.mutable.speedX;
-			this.speedY = this.mutable.speedY;
-			this.positionX = this.mutable.positionX;
-			this.positionY = this.mutable.positionY;
-			this.radius = this.mutable.radius;
-			this.ticks = this.mutable.ticks;
-			this.type = this.mutable.type;
-		}
-
-		@Override
-		public double getAccelerationX() {
-			return this.accelerationX;
-		}
-
-		@Override
-		public double getAccelerationY() {
-			return this.accelerationY;
-		}
+	interface ChunkConsumer {
+		void accept(int chunk, int start, int end);
+	}
 
-		@Override
-		public double getSpeedX() {
-			return this.speedX;
-		}
+	// Pair forces of the symmetric engine, indexed like the particles
+	private static final class PairForces {
+		final double[] x, y;
+		boolean used;
 
-		@Override
-		public double getSpeedY() {
-			return this.speedY;
-		}
-
-		@Override
-		public double getPositionX() {
-			return this.positionX;
+		PairForces(int size) {
+			this.x = new double[size];
+			this.y = new double[size];
 		}
+	}
 
-		@Override
-		public double getPositionY() {
-			return this.positionY;
-		}
+	private static final class LatchBlocker implements ManagedBlocker {
+		private final CountDownLatch latch;
 
-		@Override
-		public double getRadius() {
-			return this.radius;
+		private LatchBlocker(CountDownLatch latch) {
+			this.latch = latch;
 		}
 
 		@Override
-		public long getTicks() {
-			return this.ticks;
+		public boolean block() throws InterruptedException {
+			this.latch.await();
+			return true;
 		}
 
 		@Override
-		public Type getType() {
-			return this.type;
-		}
-
-		public boolean isSelected() {
-			return this.selected;
+		public boolean isReleasable() {
+			return this.latch.getCount() == 0;
 		}
 	}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Unbounded linked queue, any thread may offer but only one thread may poll
+public final class MpscQueue<T> {
+	private final AtomicReference<Node<T>> head;
+	private Node<T> tail;
+
+	public MpscQueue() {
+		Node<T> stub = new Node<>(null);
+		this.head = new AtomicReference<>(stub);
+		this.tail = stub;
+	}
+
+	public void offer(T value) {
+		if (value == null)
+			throw new IllegalArgumentException("value");
+
+		Node<T> node = new Node<>(value);
+		this.head.getAndSet(node).next = node;
+	}
+
+	public T poll() {
+		Node<T> next = this.tail.next;
+		if (next == null)
+			return null;
+
+		T value = next.value;
+		next.value = null;
+		this.tail = next;
+		return value;
+	}
+
+	public int drain(Consumer<? super T> consumer) {
+		int n = 0;
+		T value;
+		while ((value = poll()) != null) {
+			consumer.accept(value);
+			n++;
+		}
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return this.tail.next == null;
+	}
+
+	private static final class Node<T> {
+		T value;
+		volatile Node<T> next;
+
+		Node(T value) {
+			this.value = value;
+		}
+	}
+}
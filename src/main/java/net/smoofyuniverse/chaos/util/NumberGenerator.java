@@ -22,10 +22,10 @@
 
 package net.smoofyuniverse.chaos.util;
 
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public interface NumberGenerator {
-	double generate(Random random);
+	double generate(RandomGenerator random);
 
 	static NumberGenerator linear(double min, double max) {
 		double d = max - min;
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.chaos.universe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpatialGridTest {
+	private static final double SIZE_X = 900, SIZE_Y = 700, CELL_SIZE = 50;
+
+	@Test
+	public void updateRebuildsWhenMembershipChanges() {
+		Random random = new Random(42);
+		int n = 2000;
+		ParticleStore store = createStore(n, random);
+
+		int half = n / 2;
+		int[] even = new int[half], odd = new int[half];
+		for (int k = 0; k < half; k++) {
+			even[k] = 2 * k;
+			odd[k] = 2 * k + 1;
+		}
+
+		Universe universe = new Universe(Runnable::run, 2);
+		SpatialGrid grid = new SpatialGrid();
+		grid.update(universe, store, even, 0, half, SIZE_X, SIZE_Y, CELL_SIZE);
+		shake(store, random);
+		grid.update(universe, store, even, 0, half, SIZE_X, SIZE_Y, CELL_SIZE);
+		grid.update(universe, store, odd, 0, half, SIZE_X, SIZE_Y, CELL_SIZE);
+		shake(store, random);
+
+		// Same count, other particles whose recorded cells still look mostly right
+		grid.update(universe, store, even, 0, half, SIZE_X, SIZE_Y, CELL_SIZE);
+		assertFalse(grid.isIncremental());
+
+		SpatialGrid expected = new SpatialGrid();
+		expected.build(store, even, 0, half, SIZE_X, SIZE_Y, CELL_SIZE);
+		assertSameCells(expected, grid);
+	}
+
+	@Test
+	public void updateStaysIncrementalForSameMembers() {
+		Random random = new Random(7);
+		int n = 2000;
+		ParticleStore store = createStore(n, random);
+
+		int[] subset = new int[n / 2];
+		for (int k = 0; k < subset.length; k++)
+			subset[k] = 2 * k;
+
+		Universe universe = new Universe(Runnable::run, 2);
+		SpatialGrid grid = new SpatialGrid();
+		grid.update(universe, store, subset, 0, subset.length, SIZE_X, SIZE_Y, CELL_SIZE);
+
+		shake(store, random);
+		// A copy of the subset, only the content matters
+		grid.update(universe, store, subset.clone(), 0, subset.length, SIZE_X, SIZE_Y, CELL_SIZE);
+		assertTrue(grid.isIncremental());
+
+		SpatialGrid expected = new SpatialGrid();
+		expected.build(store, subset, 0, subset.length, SIZE_X, SIZE_Y, CELL_SIZE);
+		assertSameCells(expected, grid);
+	}
+
+	private static ParticleStore createStore(int n, Random random) {
+		ParticleStore store = ParticleStore.create(Precision.DOUBLE, Storage.HEAP, n);
+		for (int i = 0; i < n; i++) {
+			Particle p = new Particle();
+			p.positionX = random.nextDouble() * SIZE_X;
+			p.positionY = random.nextDouble() * SIZE_Y;
+			p.radius = 10;
+			p.typeId = 0;
+			store.add(p);
+		}
+		return store;
+	}
+
+	// Small moves that keep the grid on its incremental path
+	private static void shake(ParticleStore store, Random random) {
+		for (int i = 0; i < store.size(); i++)
+			store.setPosition(i, store.getPositionX(i) + random.nextDouble() - 0.5, store.getPositionY(i) + random.nextDouble() - 0.5);
+	}
+
+	private static void assertSameCells(SpatialGrid expected, SpatialGrid actual) {
+		assertEquals(expected.getCellCount(), actual.getCellCount());
+		assertEquals(expected.size(), actual.size());
+		for (int c = 0; c < expected.getCellCount(); c++)
+			assertArrayEquals(cellContents(expected, c), cellContents(actual, c), "cell " + c);
+	}
+
+	// Slot order differs between a rebuild and incremental moves
+	private static int[] cellContents(SpatialGrid grid, int cell) {
+		int start = grid.getCellStart(cell), end = grid.getCellEnd(cell);
+		int[] particles = new int[end - start];
+		for (int slot = start; slot < end; slot++)
+			particles[slot - start] = grid.getParticle(slot);
+		Arrays.sort(particles);
+		return particles;
+	}
+}